@@ -257,6 +257,15 @@ import edu.fiu.tools.StaticDPIDConverter;
 		
 		public void assignSwitchesToPods() {
 			
+			// start over so that calling this again does not add duplicates
+			core.clear();
+			p1.clear();
+			p2.clear();
+			p3.clear();
+			p4.clear();
+			tors.clear();
+			aggs.clear();
+			swPodMap.clear();
 			
 			//core
 	        core.add(FIU_301);
@@ -0,0 +1,139 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.topology.ITopologyService;
+
+/**
+ * Caches the attachment points of each device sorted by L2 domain
+ * (cluster) id, together with the cluster id of every attachment point.
+ *
+ * An entry is dropped when its device moves or is removed, and every
+ * entry becomes stale when the topology changes, since the cluster ids
+ * may have changed with it.  Looking up a cached device allocates nothing.
+ *
+ * Every cached device has a version that is bumped when it is
+ * invalidated, so attachment points read before a move are never cached
+ * after it.
+ */
+public class AttachmentPointCache {
+
+    /**
+     * The attachment points of a device in cluster id order.  Both arrays
+     * are shared and must not be modified.
+     */
+    public static class AttachmentPoints {
+        private final SwitchPort[] switchPorts;
+        private final long[] clusterIds;
+        private final long generation;
+
+        AttachmentPoints(SwitchPort[] switchPorts, long[] clusterIds,
+                         long generation) {
+            this.switchPorts = switchPorts;
+            this.clusterIds = clusterIds;
+            this.generation = generation;
+        }
+
+        public SwitchPort[] getSwitchPorts() {
+            return switchPorts;
+        }
+
+        public long[] getClusterIds() {
+            return clusterIds;
+        }
+
+        public int size() {
+            return switchPorts.length;
+        }
+    }
+
+    protected ConcurrentMap<Long, AttachmentPoints> cache;
+    protected ConcurrentMap<Long, AtomicLong> versions;
+    protected AtomicLong generation;
+    protected ITopologyService topology;
+
+    public AttachmentPointCache(ITopologyService topology) {
+        this.cache = new ConcurrentHashMap<Long, AttachmentPoints>();
+        this.versions = new ConcurrentHashMap<Long, AtomicLong>();
+        this.generation = new AtomicLong();
+        this.topology = topology;
+    }
+
+    /**
+     * Returns the sorted, cluster-annotated attachment points of a device,
+     * computing them if they are not cached or are stale.
+     */
+    public AttachmentPoints get(IDevice device) {
+        Long key = device.getDeviceKey();
+        long gen = generation.get();
+        AttachmentPoints aps = cache.get(key);
+        if (aps != null && aps.generation == gen) return aps;
+
+        AtomicLong version = versions.get(key);
+        if (version == null) {
+            version = new AtomicLong();
+            AtomicLong old = versions.putIfAbsent(key, version);
+            if (old != null) version = old;
+        }
+        long ver = version.get();
+        SwitchPort[] switchPorts = device.getAttachmentPoints();
+        long[] clusterIds = new long[switchPorts.length];
+        for (int i = 0; i < switchPorts.length; i++) {
+            clusterIds[i] = topology.getL2DomainId(switchPorts[i].getSwitchDPID());
+        }
+        // insertion sort by cluster id; devices have very few attachment
+        // points
+        for (int i = 1; i < switchPorts.length; i++) {
+            SwitchPort sp = switchPorts[i];
+            long id = clusterIds[i];
+            int j = i - 1;
+            while (j >= 0 && clusterIds[j] > id) {
+                switchPorts[j + 1] = switchPorts[j];
+                clusterIds[j + 1] = clusterIds[j];
+                j--;
+            }
+            switchPorts[j + 1] = sp;
+            clusterIds[j + 1] = id;
+        }
+
+        // stored with the generation read before the cluster ids, so an
+        // entry computed across a topology change is recomputed next time
+        aps = new AttachmentPoints(switchPorts, clusterIds, gen);
+        cache.put(key, aps);
+        // the device moved while its attachment points were read; the
+        // entry may have been put after the invalidation removed it
+        if (version.get() != ver) cache.remove(key, aps);
+        return aps;
+    }
+
+    /**
+     * Drops the entry of a device that moved or was removed.  A lookup
+     * of the device in progress does not cache what it read.
+     */
+    public void invalidate(IDevice device) {
+        Long key = device.getDeviceKey();
+        AtomicLong version = versions.remove(key);
+        if (version != null) version.incrementAndGet();
+        cache.remove(key);
+    }
+
+    /**
+     * Marks every cached entry stale.  Called when the topology changes.
+     */
+    public void topologyChanged() {
+        generation.incrementAndGet();
+    }
+
+    public void clear() {
+        for (AtomicLong version : versions.values()) {
+            version.incrementAndGet();
+        }
+        versions.clear();
+        cache.clear();
+        generation.incrementAndGet();
+    }
+}
@@ -0,0 +1,174 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openflow.util.HexString;
+
+/**
+ * A fixed-size ring buffer of the most recent forwarding decisions.
+ *
+ * Recording an event takes no lock and allocates nothing: a writer claims
+ * a sequence number and stores the event as three packed longs in the
+ * slot the sequence maps to, overwriting the oldest event.  Each slot
+ * carries the sequence of the event in it, which readers check before and
+ * after copying the slot so that they skip slots overwritten while being
+ * read.
+ */
+public class DecisionEventRecorder {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** Slot stamp while a writer is filling the slot */
+    private static final long WRITING = -1;
+
+    public enum DecisionType {
+        /** A route was installed for the packet */
+        FORWARD,
+        /** The flow-mods of the packet's flow were already in flight */
+        COALESCED,
+        /** No route was found between the attachment points */
+        NO_ROUTE,
+        /** Source and destination are on the same switch port */
+        SAME_PORT,
+        /** The source device is unknown */
+        NO_SOURCE_DEVICE,
+        /** The packet was flooded along the flood table */
+        FLOOD,
+        /** The flood table has no entry for the switch port */
+        FLOOD_NO_ENTRY,
+        /** A broadcast arrived on a port broadcasts are blocked on */
+        FLOOD_BLOCKED,
+        /** A drop flow-mod was installed by decision */
+        DROP;
+
+        private static final DecisionType[] VALUES = values();
+    }
+
+    /**
+     * A copy of a recorded event.
+     */
+    public static class DecisionEvent {
+        private final long sequence;
+        private final long timestamp;
+        private final long dpid;
+        private final short inPort;
+        private final DecisionType type;
+        private final int routeLength;
+
+        DecisionEvent(long sequence, long timestamp, long dpid, short inPort,
+                      DecisionType type, int routeLength) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.dpid = dpid;
+            this.inPort = inPort;
+            this.type = type;
+            this.routeLength = routeLength;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /** Time the event was recorded, in milliseconds since the epoch */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getSwitch() {
+            return HexString.toHexString(dpid);
+        }
+
+        public short getInPort() {
+            return inPort;
+        }
+
+        public DecisionType getType() {
+            return type;
+        }
+
+        /** Number of switches on the installed route, 0 if none */
+        public int getRouteLength() {
+            return routeLength;
+        }
+    }
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray stamps;
+    private final AtomicLongArray data;
+
+    /**
+     * @param capacity The number of events kept, rounded up to a power
+     *                 of two
+     */
+    public DecisionEventRecorder(int capacity) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        this.mask = size - 1;
+        this.stamps = new AtomicLongArray(size);
+        this.data = new AtomicLongArray(size * 3);
+        for (int i = 0; i < size; i++) {
+            stamps.set(i, WRITING);
+        }
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /** Total number of events recorded so far */
+    public long getRecordedCount() {
+        return next.get();
+    }
+
+    /**
+     * Records a decision.
+     * @param dpid The switch the packet-in came from
+     * @param inPort The port the packet was received on
+     * @param type The decision taken
+     * @param routeLength The number of switches on the route, or 0
+     */
+    public void record(long dpid, short inPort, DecisionType type,
+                       int routeLength) {
+        long seq = next.getAndIncrement();
+        int slot = (int)seq & mask;
+        int base = slot * 3;
+        stamps.set(slot, WRITING);
+        data.lazySet(base, System.currentTimeMillis());
+        data.lazySet(base + 1, dpid);
+        data.lazySet(base + 2, ((long)(inPort & 0xffff) << 48) |
+                               ((long)type.ordinal() << 32) |
+                               (routeLength & 0xffffffffL));
+        stamps.lazySet(slot, seq);
+    }
+
+    /**
+     * Returns up to count of the most recent events, oldest first.
+     * Events overwritten while being copied are left out.
+     */
+    public List<DecisionEvent> getLastEvents(int count) {
+        long end = next.get();
+        long start = Math.max(0, end - Math.min(count, getCapacity()));
+        if (start >= end) return Collections.emptyList();
+
+        List<DecisionEvent> events = new ArrayList<DecisionEvent>((int)(end - start));
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int)seq & mask;
+            int base = slot * 3;
+            if (stamps.get(slot) != seq) continue;
+            long timestamp = data.get(base);
+            long dpid = data.get(base + 1);
+            long packed = data.get(base + 2);
+            if (stamps.get(slot) != seq) continue;
+
+            events.add(new DecisionEvent(seq, timestamp, dpid,
+                    (short)(packed >>> 48),
+                    DecisionType.VALUES[(int)(packed >>> 32) & 0xffff],
+                    (int)packed));
+        }
+        return events;
+    }
+}
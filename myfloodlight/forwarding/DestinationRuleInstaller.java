@@ -0,0 +1,122 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.forwarding.AttachmentPointCache.AttachmentPoints;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.IRoutingService;
+import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.topology.ITopologyService;
+
+import org.openflow.protocol.OFMatch;
+
+/**
+ * Installs one rule per destination host on every switch of the host's
+ * cluster, instead of one rule per host pair.  Each rule matches only the
+ * destination (MAC, or IPv4 address when matching on IP) and sends the
+ * packet along the destination-rooted shortest path tree of the host's
+ * switch, so the flow tables grow with hosts times switches and traffic
+ * between known hosts never reaches the controller.  There is no host
+ * limit, and every device event recomputes all the rules, which costs a
+ * tree lookup per host.
+ */
+public class DestinationRuleInstaller extends ProactiveRouteInstaller {
+
+    protected ITopologyService topology;
+    protected boolean matchIp;
+
+    /**
+     * @param matchIp Match on the destination IPv4 addresses of the hosts
+     *                instead of their MAC address
+     */
+    public DestinationRuleInstaller(IFloodlightProviderService floodlightProvider,
+                                    IDeviceService deviceManager,
+                                    IRoutingService routingEngine,
+                                    ITopologyService topology,
+                                    AttachmentPointCache attachmentPoints,
+                                    ScheduledExecutorService ses,
+                                    int flowModsPerSecond, long cookie,
+                                    boolean matchIp) {
+        super(floodlightProvider, deviceManager, routingEngine,
+              attachmentPoints, ses, flowModsPerSecond, cookie);
+        this.topology = topology;
+        this.matchIp = matchIp;
+        this.maxHosts = Integer.MAX_VALUE;
+    }
+
+    @Override
+    protected boolean computeDeviceRules(List<IDevice> devices,
+                                         List<IDevice> changed,
+                                         Map<RuleKey, Short> rules) {
+        return changed.isEmpty();
+    }
+
+    @Override
+    protected void computeRules(List<IDevice> devices,
+                                Map<RuleKey, Short> rules) {
+        for (IDevice dst : devices) {
+            AttachmentPoints dstAps = attachmentPoints.get(dst);
+            for (OFMatch match : getDestinationMatches(dst)) {
+                addTreeRules(rules, match, dstAps);
+            }
+        }
+    }
+
+    /**
+     * Returns the matches that select the traffic towards a host: its MAC
+     * address, or each of its IPv4 addresses when matching on IP.
+     */
+    protected List<OFMatch> getDestinationMatches(IDevice dst) {
+        List<OFMatch> matches = new ArrayList<OFMatch>(1);
+        if (matchIp) {
+            for (Integer ip : dst.getIPv4Addresses()) {
+                OFMatch match = new OFMatch();
+                match.setWildcards(OFMatch.OFPFW_ALL
+                                   & ~OFMatch.OFPFW_DL_TYPE
+                                   & ~OFMatch.OFPFW_NW_DST_MASK);
+                match.setDataLayerType(Ethernet.TYPE_IPv4);
+                match.setNetworkDestination(ip);
+                matches.add(match);
+            }
+        } else {
+            OFMatch match = new OFMatch();
+            match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_DST);
+            match.setDataLayerDestination(Ethernet.toByteArray(dst.getMACAddress()));
+            matches.add(match);
+        }
+        return matches;
+    }
+
+    /**
+     * Adds the rules towards a host for every cluster it is attached to.
+     * Within a cluster the host is reached through its first attachment
+     * point.
+     */
+    protected void addTreeRules(Map<RuleKey, Short> rules, OFMatch match,
+                                AttachmentPoints dstAps) {
+        SwitchPort[] dstDaps = dstAps.getSwitchPorts();
+        long[] dstClusters = dstAps.getClusterIds();
+        for (int i = 0; i < dstDaps.length; i++) {
+            if (i > 0 && dstClusters[i] == dstClusters[i - 1]) continue;
+
+            long root = dstDaps[i].getSwitchDPID();
+            rules.put(new RuleKey(root, match), (short)dstDaps[i].getPort());
+
+            BroadcastTree tree = topology.getDestinationRootedTree(root);
+            if (tree == null) continue;
+            for (Map.Entry<Long, Link> e : tree.getLinks().entrySet()) {
+                Link link = e.getValue();
+                if (link == null) continue;
+                rules.put(new RuleKey(e.getKey(), match), link.getSrcPort());
+            }
+        }
+    }
+}
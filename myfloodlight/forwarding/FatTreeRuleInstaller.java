@@ -0,0 +1,201 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
+import net.floodlightcontroller.routing.IRoutingService;
+import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.topology.FatTreeLayout;
+import net.floodlightcontroller.topology.FatTreeLayout.Tier;
+import net.floodlightcontroller.topology.ITopologyService;
+
+import org.openflow.protocol.OFMatch;
+
+/**
+ * Installs two-level fat-tree routing tables in the style of Al-Fares et
+ * al.  Traffic goes up towards the core until it reaches a switch that can
+ * go down to the destination's pod (the prefix level); the uplink taken on
+ * the way up is chosen from the destination host id (the suffix level), so
+ * the traffic to different hosts spreads evenly across the core switches.
+ *
+ * OpenFlow 1.0 can not match address suffixes and the testbed hosts are not
+ * addressed by pod, so both levels are folded into one rule per destination
+ * host on every switch, matching the same fields as the destination rules.
+ * The host id of a host is its position among the hosts of its edge
+ * switch, ordered by port.  Hosts attached to switches outside the layout
+ * are left to reactive forwarding.
+ */
+public class FatTreeRuleInstaller extends DestinationRuleInstaller {
+
+    protected ILinkDiscoveryService linkDiscovery;
+    protected FatTreeLayout layout;
+
+    protected static final Comparator<Link> srcPortComparator =
+            new Comparator<Link>() {
+        @Override
+        public int compare(Link l1, Link l2) {
+            return l1.getSrcPort() - l2.getSrcPort();
+        }
+    };
+
+    /**
+     * A host attached to an edge switch.
+     */
+    protected static class EdgeHost {
+        final IDevice device;
+        final long edge;
+        final short port;
+        int hostId;
+
+        EdgeHost(IDevice device, long edge, short port) {
+            this.device = device;
+            this.edge = edge;
+            this.port = port;
+        }
+    }
+
+    public FatTreeRuleInstaller(IFloodlightProviderService floodlightProvider,
+                                IDeviceService deviceManager,
+                                IRoutingService routingEngine,
+                                ITopologyService topology,
+                                ILinkDiscoveryService linkDiscovery,
+                                FatTreeLayout layout,
+                                AttachmentPointCache attachmentPoints,
+                                ScheduledExecutorService ses,
+                                int flowModsPerSecond, long cookie,
+                                boolean matchIp) {
+        super(floodlightProvider, deviceManager, routingEngine, topology,
+              attachmentPoints, ses, flowModsPerSecond, cookie, matchIp);
+        this.linkDiscovery = linkDiscovery;
+        this.layout = layout;
+    }
+
+    @Override
+    protected void computeRules(List<IDevice> devices,
+                                Map<RuleKey, Short> rules) {
+        // split the links of every switch in the layout into the links
+        // towards the tier above, ordered by port, and the links towards
+        // the tier below, by neighbor
+        Map<Long, List<Link>> uplinks = new HashMap<Long, List<Link>>();
+        Map<Long, Map<Long, Link>> downlinks = new HashMap<Long, Map<Long, Link>>();
+        Map<Long, Set<Link>> switchLinks = linkDiscovery.getSwitchLinks();
+        for (Map.Entry<Long, Set<Link>> e : switchLinks.entrySet()) {
+            long sw = e.getKey();
+            Tier tier = layout.getTier(sw);
+            if (tier == null) continue;
+            List<Link> up = new ArrayList<Link>();
+            Map<Long, Link> down = new HashMap<Long, Link>();
+            for (Link link : e.getValue()) {
+                if (link.getSrc() != sw) continue;
+                Tier neighborTier = layout.getTier(link.getDst());
+                if (neighborTier == null) continue;
+                if (neighborTier.ordinal() > tier.ordinal()) {
+                    up.add(link);
+                } else if (neighborTier.ordinal() < tier.ordinal()) {
+                    Link old = down.get(link.getDst());
+                    if (old == null || link.getSrcPort() < old.getSrcPort())
+                        down.put(link.getDst(), link);
+                }
+            }
+            Collections.sort(up, srcPortComparator);
+            uplinks.put(sw, up);
+            downlinks.put(sw, down);
+        }
+
+        for (EdgeHost host : getEdgeHosts(devices)) {
+            for (OFMatch match : getDestinationMatches(host.device)) {
+                addFatTreeRules(rules, match, host, uplinks, downlinks);
+            }
+        }
+    }
+
+    /**
+     * Returns the hosts attached to an edge switch of the layout, each with
+     * its host id.
+     */
+    protected List<EdgeHost> getEdgeHosts(List<IDevice> devices) {
+        Map<Long, List<EdgeHost>> byEdge = new HashMap<Long, List<EdgeHost>>();
+        for (IDevice device : devices) {
+            for (SwitchPort ap : attachmentPoints.get(device).getSwitchPorts()) {
+                if (layout.getTier(ap.getSwitchDPID()) != Tier.EDGE) continue;
+                List<EdgeHost> l = byEdge.get(ap.getSwitchDPID());
+                if (l == null) {
+                    l = new ArrayList<EdgeHost>();
+                    byEdge.put(ap.getSwitchDPID(), l);
+                }
+                l.add(new EdgeHost(device, ap.getSwitchDPID(),
+                                   (short)ap.getPort()));
+                break;
+            }
+        }
+
+        List<EdgeHost> hosts = new ArrayList<EdgeHost>();
+        for (List<EdgeHost> l : byEdge.values()) {
+            Collections.sort(l, new Comparator<EdgeHost>() {
+                @Override
+                public int compare(EdgeHost h1, EdgeHost h2) {
+                    return h1.port - h2.port;
+                }
+            });
+            for (int i = 0; i < l.size(); i++) {
+                l.get(i).hostId = i;
+            }
+            hosts.addAll(l);
+        }
+        return hosts;
+    }
+
+    /**
+     * Adds the rule towards a host on every switch of the layout that has
+     * links.
+     */
+    protected void addFatTreeRules(Map<RuleKey, Short> rules, OFMatch match,
+                                   EdgeHost host,
+                                   Map<Long, List<Link>> uplinks,
+                                   Map<Long, Map<Long, Link>> downlinks) {
+        int dstPod = layout.getPod(host.edge);
+        rules.put(new RuleKey(host.edge, match), host.port);
+
+        for (Map.Entry<Long, List<Link>> e : uplinks.entrySet()) {
+            long sw = e.getKey();
+            if (sw == host.edge) continue;
+            Tier tier = layout.getTier(sw);
+            Link out = null;
+
+            if (tier == Tier.CORE) {
+                // down to the destination pod
+                for (Link link : downlinks.get(sw).values()) {
+                    if (layout.getPod(link.getDst()) != dstPod) continue;
+                    if (out == null || link.getSrcPort() < out.getSrcPort())
+                        out = link;
+                }
+            } else if (tier == Tier.AGGREGATION &&
+                       layout.getPod(sw) == dstPod) {
+                // down to the destination edge switch
+                out = downlinks.get(sw).get(host.edge);
+            } else {
+                // up, spread by host id
+                List<Link> up = e.getValue();
+                if (!up.isEmpty()) {
+                    int i = (host.hostId + layout.getPosition(sw)) % up.size();
+                    out = up.get(i);
+                }
+            }
+
+            if (out != null) {
+                rules.put(new RuleKey(sw, match), out.getSrcPort());
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+
+/**
+ * A pre-built flood flow-mod for one (switch, input port) entry of a
+ * {@link FloodTable}.  The action list, its wire encoding and the message
+ * length are computed once when the table is built; creating a flow-mod
+ * for a packet-in only fills in the match, buffer id and cookie.
+ */
+public class FloodFlowModTemplate {
+    private final short[] outPorts;
+    private final List<OFAction> actions;
+    private final byte[] encodedActions;
+    private final int lengthU;
+
+    public FloodFlowModTemplate(short[] outPorts) {
+        this.outPorts = outPorts;
+
+        List<OFAction> l = new ArrayList<OFAction>(outPorts.length);
+        for (short outPort : outPorts) {
+            l.add(new OFActionOutput(outPort, (short)0xFFFF));
+        }
+        this.actions = Collections.unmodifiableList(l);
+
+        int actionsLength = OFActionOutput.MINIMUM_LENGTH * outPorts.length;
+        ChannelBuffer buf = ChannelBuffers.buffer(actionsLength);
+        for (OFAction action : actions) {
+            action.writeTo(buf);
+        }
+        this.encodedActions = buf.array();
+        this.lengthU = OFFlowMod.MINIMUM_LENGTH + actionsLength;
+    }
+
+    public short[] getOutPorts() {
+        return outPorts;
+    }
+
+    public List<OFAction> getActions() {
+        return actions;
+    }
+
+    public int getLengthU() {
+        return lengthU;
+    }
+
+    /**
+     * Creates a flood flow-mod for a packet-in.  The returned message
+     * shares the immutable action list of this template and writes the
+     * pre-encoded actions when serialized.
+     * @param match The match built from the packet-in
+     * @param bufferId The buffer id of the packet-in
+     * @param cookie The flow cookie
+     * @return The flow-mod
+     */
+    public OFFlowMod newFlowMod(OFMatch match, int bufferId, long cookie) {
+        OFFlowMod fm = new PreEncodedFlowMod(encodedActions);
+        fm.setCookie(cookie)
+          .setHardTimeout((short) 0)
+          .setIdleTimeout((short) 0)
+          .setBufferId(bufferId)
+          .setMatch(match)
+          .setActions(actions)
+          .setLengthU(lengthU);
+        return fm;
+    }
+
+    /**
+     * A flow-mod that serializes a pre-encoded action section instead of
+     * encoding every action on every write.
+     */
+    protected static class PreEncodedFlowMod extends OFFlowMod {
+        private final byte[] encodedActions;
+
+        PreEncodedFlowMod(byte[] encodedActions) {
+            super();
+            this.encodedActions = encodedActions;
+        }
+
+        @Override
+        public void writeTo(ChannelBuffer data) {
+            // OFMessage header
+            data.writeByte(version);
+            data.writeByte(type.getTypeValue());
+            data.writeShort(length);
+            data.writeInt(xid);
+            // OFFlowMod body
+            match.writeTo(data);
+            data.writeLong(cookie);
+            data.writeShort(command);
+            data.writeShort(idleTimeout);
+            data.writeShort(hardTimeout);
+            data.writeShort(priority);
+            data.writeInt(bufferId);
+            data.writeShort(outPort);
+            data.writeShort(flags);
+            data.writeBytes(encodedActions);
+        }
+    }
+}
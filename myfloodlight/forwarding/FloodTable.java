@@ -0,0 +1,258 @@
+package net.floodlightcontroller.forwarding;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openflow.util.HexString;
+
+/**
+ * An immutable flood table that maps a (switch DPID, input port) pair to
+ * the set of output ports a broadcast packet must be sent out of.
+ *
+ * The table is an open-addressing hash table over primitive arrays, so a
+ * lookup is a single probe sequence with no boxing and no allocation.  The
+ * returned port arrays are shared and must not be modified by the caller.
+ * To change the flooding behavior build a new table and swap it in.
+ *
+ * Every entry also carries a {@link FloodFlowModTemplate} with the flow-mod
+ * actions already built and encoded, so the flood path does not rebuild
+ * the same action list for every broadcast packet-in.
+ */
+public class FloodTable implements SwitchDPIDList {
+    private final long[] dpids;
+    private final short[] inPorts;
+    private final FloodFlowModTemplate[] templates;
+    private final int mask;
+    private final int size;
+
+    private FloodTable(List<Long> dpidList, List<Short> inPortList,
+                       List<short[]> outPortList) {
+        int n = dpidList.size();
+        int capacity = 2;
+        // keep the load factor at or below 0.5 so probe sequences stay short
+        while (capacity < n * 2) capacity <<= 1;
+
+        dpids = new long[capacity];
+        inPorts = new short[capacity];
+        templates = new FloodFlowModTemplate[capacity];
+        mask = capacity - 1;
+
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            long dpid = dpidList.get(k);
+            short inPort = inPortList.get(k);
+            int i = index(dpid, inPort);
+            while (templates[i] != null) {
+                if (dpids[i] == dpid && inPorts[i] == inPort) break;
+                i = (i + 1) & mask;
+            }
+            if (templates[i] == null) count++;
+            dpids[i] = dpid;
+            inPorts[i] = inPort;
+            templates[i] = new FloodFlowModTemplate(outPortList.get(k));
+        }
+        size = count;
+    }
+
+    private int index(long dpid, short inPort) {
+        long h = (dpid ^ ((long)(inPort & 0xffff) << 48)) * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the output ports for a broadcast packet received on the
+     * given switch port, or null if the table has no entry for it.
+     * @param dpid The switch DPID
+     * @param inPort The port the packet was received on
+     * @return The output ports; the array must not be modified
+     */
+    public short[] lookup(long dpid, short inPort) {
+        FloodFlowModTemplate t = lookupTemplate(dpid, inPort);
+        if (t == null) return null;
+        return t.getOutPorts();
+    }
+
+    /**
+     * Returns the flood flow-mod template for a broadcast packet received
+     * on the given switch port, or null if the table has no entry for it.
+     * @param dpid The switch DPID
+     * @param inPort The port the packet was received on
+     * @return The shared flow-mod template
+     */
+    public FloodFlowModTemplate lookupTemplate(long dpid, short inPort) {
+        int i = index(dpid, inPort);
+        while (templates[i] != null) {
+            if (dpids[i] == dpid && inPorts[i] == inPort)
+                return templates[i];
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "FloodTable [size=" + size + "]";
+    }
+
+    /**
+     * Accumulates entries for a new flood table.  Adding the same
+     * (dpid, inPort) pair twice keeps the last entry.
+     */
+    public static class Builder {
+        private List<Long> dpids = new ArrayList<Long>();
+        private List<Short> inPorts = new ArrayList<Short>();
+        private List<short[]> outPorts = new ArrayList<short[]>();
+
+        public Builder add(long dpid, int inPort, int... ports) {
+            short[] p = new short[ports.length];
+            for (int i = 0; i < ports.length; i++) {
+                p[i] = (short)ports[i];
+            }
+            dpids.add(dpid);
+            inPorts.add((short)inPort);
+            outPorts.add(p);
+            return this;
+        }
+
+        public FloodTable build() {
+            return new FloodTable(dpids, inPorts, outPorts);
+        }
+    }
+
+    /**
+     * Loads a flood table from a text file.  Every non-empty line that is
+     * not a comment ('#') has the form
+     * <pre>
+     *   &lt;dpid&gt; &lt;in-port&gt; &lt;out-port&gt;[,&lt;out-port&gt;...]
+     * </pre>
+     * where the DPID is either decimal or colon separated hex
+     * (00:65:00:00:00:00:00:00).
+     * @param fileName The path of the file to read
+     * @return The new flood table
+     * @throws IOException if the file can not be read
+     * @throws IllegalArgumentException if a line can not be parsed
+     */
+    public static FloodTable load(String fileName) throws IOException {
+        Builder builder = new Builder();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException(fileName + ":" + lineNo +
+                            ": expected <dpid> <in-port> <out-ports>");
+                }
+                try {
+                    long dpid = (fields[0].indexOf(':') >= 0)
+                            ? HexString.toLong(fields[0])
+                            : Long.parseLong(fields[0]);
+                    int inPort = Integer.parseInt(fields[1]);
+                    String[] ports = fields[2].split(",");
+                    int[] outPorts = new int[ports.length];
+                    for (int i = 0; i < ports.length; i++) {
+                        outPorts[i] = Integer.parseInt(ports[i].trim());
+                    }
+                    builder.add(dpid, inPort, outPorts);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(fileName + ":" + lineNo +
+                            ": " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return builder.build();
+    }
+
+    /**
+     * The static flood tree of the FIU fat-tree testbed.  Every packet
+     * received on a switch port is sent out of the ports listed for it,
+     * which together form a loop-free broadcast tree.
+     */
+    public static FloodTable getDefault() {
+        return new Builder()
+            // TOR LAYER
+            .add(FIU_101, 26, 27, 28)
+            .add(FIU_101, 28, 27, 26)
+            .add(FIU_101, 27, 26, 28)
+            .add(FIU_101, 25, 26, 28)
+            .add(FIU_102, 30, 31, 32)
+            .add(FIU_102, 32, 30, 31)
+            .add(FIU_102, 29, 30, 32)
+            .add(FIU_102, 31, 30, 32)
+            .add(FIU_103, 34, 36, 35)
+            .add(FIU_103, 36, 34, 35)
+            .add(FIU_103, 35, 34, 36)
+            .add(FIU_103, 33, 34, 36)
+            .add(FIU_104, 38, 39, 40)
+            .add(FIU_104, 40, 39, 38)
+            .add(FIU_104, 37, 38, 40)
+            .add(FIU_104, 39, 38, 40)
+            .add(FIU_105, 26, 27, 28)
+            .add(FIU_105, 28, 27, 26)
+            .add(FIU_105, 27, 26, 28)
+            .add(FIU_105, 25, 26, 28)
+            .add(FIU_106, 30, 32, 31)
+            .add(FIU_106, 32, 30, 31)
+            .add(FIU_106, 29, 30, 32)
+            .add(FIU_106, 31, 30, 32)
+            .add(FIU_107, 34, 35, 36)
+            .add(FIU_107, 36, 35, 34)
+            .add(FIU_107, 35, 34, 36)
+            .add(FIU_107, 33, 34, 36)
+            .add(FIU_108, 38, 40, 39)
+            .add(FIU_108, 40, 38, 39)
+            .add(FIU_108, 39, 38, 40)
+            .add(FIU_108, 37, 38, 40)
+            // AGGR LAYER
+            .add(FIU_201, 43, 42, 41)
+            .add(FIU_201, 42, 43, 41)
+            .add(FIU_201, 44, 43, 41)
+            .add(FIU_202, 45, 46, 47)
+            .add(FIU_202, 46, 47, 45)
+            .add(FIU_202, 48, 47, 45)
+            .add(FIU_203, 51, 52, 49)
+            .add(FIU_203, 50, 51, 49)
+            .add(FIU_203, 52, 51, 49)
+            .add(FIU_204, 53, 56, 55)
+            .add(FIU_204, 54, 55, 53)
+            .add(FIU_204, 56, 55, 53)
+            .add(FIU_205, 43, 44, 41)
+            .add(FIU_205, 44, 43, 41)
+            .add(FIU_205, 42, 43, 41)
+            .add(FIU_206, 45, 47, 48)
+            .add(FIU_206, 46, 47, 45)
+            .add(FIU_206, 48, 47, 45)
+            .add(FIU_207, 51, 50, 49)
+            .add(FIU_207, 52, 51, 49)
+            .add(FIU_207, 50, 51, 49)
+            .add(FIU_208, 53, 55, 56)
+            .add(FIU_208, 54, 55, 53)
+            .add(FIU_208, 56, 55, 53)
+            // CORE LAYER
+            .add(FIU_301, 58, 57, 60, 59)
+            .add(FIU_301, 57, 58, 60, 59)
+            .add(FIU_302, 64, 62, 61, 63)
+            .add(FIU_302, 63, 62, 64, 61)
+            .add(FIU_303, 59, 57, 58, 60)
+            .add(FIU_303, 60, 57, 58, 59)
+            .add(FIU_304, 63, 62, 61, 64)
+            .add(FIU_304, 62, 63, 61, 64)
+            .build();
+    }
+}
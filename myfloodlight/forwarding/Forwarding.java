@@ -22,13 +22,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.SwitchPort;
@@ -40,16 +44,31 @@ import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.AppCookie;
+import net.floodlightcontroller.core.util.SingletonTask;
 import net.floodlightcontroller.counter.ICounterStoreService;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.routing.ForwardingBase;
 import net.floodlightcontroller.routing.IRoutingDecision;
 import net.floodlightcontroller.routing.IRoutingService;
 import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+import net.floodlightcontroller.forwarding.AttachmentPointCache.AttachmentPoints;
+import net.floodlightcontroller.forwarding.DecisionEventRecorder.DecisionType;
+import net.floodlightcontroller.forwarding.InFlightFlowTable.InFlightFlow;
+import net.floodlightcontroller.forwarding.RouteInstallTracker.IRouteInstallListener;
+import net.floodlightcontroller.forwarding.RouteInstallTracker.PendingInstall;
+import net.floodlightcontroller.forwarding.web.ForwardingWebRoutable;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
+import net.floodlightcontroller.topology.FatTreeLayout;
+import net.floodlightcontroller.topology.ITopologyListener;
 import net.floodlightcontroller.topology.ITopologyService;
+import net.floodlightcontroller.topology.NodePortTuple;
 
+import org.openflow.protocol.OFBarrierRequest;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFPort;
@@ -65,19 +84,183 @@ import org.slf4j.LoggerFactory;
 import edu.fiu.openflowresearch.FIUPortStatistics;
 
 @LogMessageCategory("Flow Programming")
-public class Forwarding extends ForwardingBase implements IFloodlightModule, SwitchDPIDList {
+public class Forwarding extends ForwardingBase implements IFloodlightModule, SwitchDPIDList,
+        IForwardingService, IRouteInstallListener, ITopologyListener,
+        IOFSwitchListener {
     protected static Logger log = LoggerFactory.getLogger(Forwarding.class);
+    protected static final long FLOOD_COOKIE =
+            AppCookie.makeCookie(FORWARDING_APP_ID, 0);
+    protected static final long PROACTIVE_COOKIE =
+            AppCookie.makeCookie(FORWARDING_APP_ID, 1);
     protected FIUPortStatistics portStats;
     List<OFPortStatisticsReply> tempStats;
 
+    /**
+     * Flood table used by doFlood.  Replaced as a whole, never modified.
+     */
+    protected volatile FloodTable floodTable;
+    protected String floodTableFile;
+
+    /**
+     * Flows whose flow-mods have been pushed but not yet confirmed by a
+     * barrier reply.
+     */
+    protected InFlightFlowTable inFlightFlows;
+
+    /**
+     * Routes waiting for barrier replies from the switches on the path.
+     */
+    protected RouteInstallTracker routeInstalls;
+    protected SingletonTask routeInstallTimeoutTask;
+
+    /**
+     * Attachment points of the known devices, sorted by cluster id.
+     */
+    protected AttachmentPointCache attachmentPoints;
+
+    /**
+     * Pre-installs the routes of all host pairs, or null if only
+     * reactive forwarding is enabled.
+     */
+    protected ProactiveRouteInstaller proactiveRoutes;
+
+    /**
+     * Maximum number of equal-cost routes a flow is hashed over; 1 uses
+     * the single shortest path route.
+     */
+    protected int maxPaths = DEFAULT_MAX_PATHS;
+    protected static final int DEFAULT_MAX_PATHS = 8;
+    protected ProactiveMode proactiveMode = ProactiveMode.NONE;
+    protected boolean proactiveMatchIp;
+    protected int proactiveRate;
+    protected int proactiveMaxHosts = ProactiveRouteInstaller.DEFAULT_MAX_HOSTS;
+
+    protected enum ProactiveMode {
+        /** Reactive forwarding only */
+        NONE,
+        /** One rule per host pair on every switch of its route */
+        PAIRS,
+        /** One rule per destination host on every switch */
+        DESTINATION,
+        /** Two-level fat-tree tables spread across the core by host id */
+        FATTREE
+    }
+
+    /**
+     * The most recent forwarding decisions, for troubleshooting.
+     */
+    protected DecisionEventRecorder decisionEvents;
+
+    /**
+     * Worker lanes packet-ins are dispatched to, or null to process them
+     * on the thread that delivered them.
+     */
+    protected PacketInLanes lanes;
+    protected boolean laneByFlow;
+
+    protected IThreadPoolService threadPool;
+    protected IRestApiService restApi;
+    protected ILinkDiscoveryService linkDiscovery;
+
     @Override
+    public Command processPacketInMessage(final IOFSwitch sw, final OFPacketIn pi,
+                                          final IRoutingDecision decision,
+                                          FloodlightContext cntx) {
+        if (lanes == null) {
+            return processPacketIn(sw, pi, decision, cntx);
+        }
+
+        long key = sw.getId();
+        if (laneByFlow) {
+            Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
+                                   IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+            key = (key * 31 + Ethernet.toLong(eth.getSourceMACAddress())) * 31 +
+                    Ethernet.toLong(eth.getDestinationMACAddress());
+        }
+        final FloodlightContext laneCntx = copyPacketInContext(cntx);
+        boolean queued = lanes.execute(key, new Runnable() {
+            @Override
+            public void run() {
+                processPacketInInLane(sw, pi, decision, laneCntx);
+            }
+        });
+        if (!queued && log.isDebugEnabled()) {
+            // counted by the lanes; the switch punts the flow again
+            log.debug("Packet-in lane {} is full, dropping packet-in",
+                      lanes.getLane(key));
+        }
+        return Command.CONTINUE;
+    }
+
+    /**
+     * Copies what processPacketIn reads from the context of a packet-in
+     * into a new context.  The controller clears and reuses the original
+     * for the next message as soon as the listeners return, before a lane
+     * gets to the packet-in.
+     */
+    protected static FloodlightContext
+    copyPacketInContext(FloodlightContext cntx) {
+        FloodlightContext copy = new FloodlightContext();
+        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
+                               IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        if (eth != null) {
+            IFloodlightProviderService.bcStore.put(copy,
+                    IFloodlightProviderService.CONTEXT_PI_PAYLOAD, eth);
+        }
+        IDevice srcDevice = IDeviceService.fcStore.get(cntx,
+                                    IDeviceService.CONTEXT_SRC_DEVICE);
+        if (srcDevice != null) {
+            IDeviceService.fcStore.put(copy,
+                    IDeviceService.CONTEXT_SRC_DEVICE, srcDevice);
+        }
+        IDevice dstDevice = IDeviceService.fcStore.get(cntx,
+                                    IDeviceService.CONTEXT_DST_DEVICE);
+        if (dstDevice != null) {
+            IDeviceService.fcStore.put(copy,
+                    IDeviceService.CONTEXT_DST_DEVICE, dstDevice);
+        }
+        IRoutingDecision decision = IRoutingDecision.rtStore.get(cntx,
+                                            IRoutingDecision.CONTEXT_DECISION);
+        if (decision != null) {
+            IRoutingDecision.rtStore.put(copy,
+                    IRoutingDecision.CONTEXT_DECISION, decision);
+        }
+        return copy;
+    }
+
+    @LogMessageDoc(level="ERROR",
+                   message="Exception processing packet-in from switch {}",
+                   explanation="An unknown error occured while a forwarding " +
+                           "lane processed a packet-in",
+                   recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    protected void processPacketInInLane(IOFSwitch sw, OFPacketIn pi,
+                                         IRoutingDecision decision,
+                                         FloodlightContext cntx) {
+        try {
+            processPacketIn(sw, pi, decision, cntx);
+        } catch (Exception e) {
+            log.error("Exception processing packet-in from switch " +
+                      sw.getStringId(), e);
+        } finally {
+            // writes are buffered per thread and only the I/O threads
+            // flush theirs after every message; installRoute flushes the
+            // other switches of a route itself
+            sw.flush();
+        }
+    }
+
+    /**
+     * Forwards, floods or drops a packet-in according to the routing
+     * decision.  Runs on the thread that delivered the packet-in, or on
+     * the packet-in's lane when lanes are enabled.
+     */
     @LogMessageDoc(level="ERROR",
                    message="Unexpected decision made for this packet-in={}",
                    explanation="An unsupported PacketIn decision has been " +
                    		"passed to the flow programming component",
                    recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
-    public Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision, 
-                                          FloodlightContext cntx) {
+    protected Command processPacketIn(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision, 
+                                      FloodlightContext cntx) {
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, 
                                    IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
         
@@ -165,15 +348,34 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
         } catch (IOException e) {
             log.error("Failure writing drop flow mod", e);
         }
+        decisionEvents.record(sw.getId(), pi.getInPort(),
+                              DecisionType.DROP, 0);
     }
     
     protected void doForwardFlow(IOFSwitch sw, OFPacketIn pi, 
                                  FloodlightContext cntx,
                                  boolean requestFlowRemovedNotifn) {
-    	
-    	System.out.println("+++++++++++Entering doforwardflow++++++++++++++");
         OFMatch match = new OFMatch();
         match.loadFromPacket(pi.getPacketData(), pi.getInPort());
+
+        // If the flow-mods for this flow are still on their way to the
+        // switches, hold the packet until the route is confirmed (or send
+        // it along the path already chosen) instead of computing and
+        // pushing the same route again.
+        InFlightFlow inFlight = inFlightFlows.get(sw.getId(), match);
+        if (inFlight != null) {
+            if (log.isTraceEnabled()) {
+                log.trace("Flow in flight on switch={}, match={}, " +
+                          "out port {}",
+                          new Object[] {sw, match, inFlight.getOutPort()});
+            }
+            if (!inFlight.hold(pi)) {
+                pushPacket(sw, match, pi, inFlight.getOutPort(), cntx);
+            }
+            decisionEvents.record(sw.getId(), pi.getInPort(),
+                                  DecisionType.COALESCED, 0);
+            return;
+        }
         //tempStats =
     		 //  portStats.getSwitchStatistics(sw.getId(), OFStatisticsType.PORT);
      //  System.out.println("---------------------------Creating Port Stats-------------");
@@ -193,6 +395,8 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
             
             if (srcDevice == null) {
                 log.debug("No device entry found for source device");
+                decisionEvents.record(sw.getId(), pi.getInPort(),
+                                      DecisionType.NO_SOURCE_DEVICE, 0);
                 return;
             }
             if (srcIsland == null) {
@@ -205,12 +409,14 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
             // Validate that the source and destination are not on the same switchport
             boolean on_same_island = false;
             boolean on_same_if = false;
-            for (SwitchPort dstDap : dstDevice.getAttachmentPoints()) {
+            AttachmentPoints dstAps = attachmentPoints.get(dstDevice);
+            SwitchPort[] dstDaps = dstAps.getSwitchPorts();
+            long[] dstClusters = dstAps.getClusterIds();
+            for (int i = 0; i < dstDaps.length; i++) {
+                SwitchPort dstDap = dstDaps[i];
                 long dstSwDpid = dstDap.getSwitchDPID();
-                Long dstIsland = topology.getL2DomainId(dstSwDpid);
-                if ((dstIsland != null) && dstIsland.equals(srcIsland)) {
+                if (dstClusters[i] == srcIsland.longValue()) {
                     on_same_island = true;
-                    System.out.println("+++++++Source and destination are on the same island");
                     if ((sw.getId() == dstSwDpid) &&
                         (pi.getInPort() == dstDap.getPort())) {
                         on_same_if = true;
@@ -225,7 +431,6 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
                     log.trace("No first hop island found for destination " + 
                               "device {}, Action = flooding", dstDevice);
                 }
-                System.out.println("Going to flood+++++++++++++");
                 doFlood(sw, pi, cntx);
                 return;
             }            
@@ -236,43 +441,33 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
                               "switch/port {}/{}, Action = NOP", 
                               sw.toString(), pi.getInPort());
                 }
+                decisionEvents.record(sw.getId(), pi.getInPort(),
+                                      DecisionType.SAME_PORT, 0);
                 return;
             }
 
             // Install all the routes where both src and dst have attachment
             // points.  Since the lists are stored in sorted order we can 
             // traverse the attachment points in O(m+n) time
-            SwitchPort[] srcDaps = srcDevice.getAttachmentPoints();
-            Arrays.sort(srcDaps, clusterIdComparator);
-            SwitchPort[] dstDaps = dstDevice.getAttachmentPoints();
-            Arrays.sort(dstDaps, clusterIdComparator);
+            AttachmentPoints srcAps = attachmentPoints.get(srcDevice);
+            SwitchPort[] srcDaps = srcAps.getSwitchPorts();
+            long[] srcClusters = srcAps.getClusterIds();
 
             int iSrcDaps = 0, iDstDaps = 0;
 
             while ((iSrcDaps < srcDaps.length) && (iDstDaps < dstDaps.length)) {
                 SwitchPort srcDap = srcDaps[iSrcDaps];
                 SwitchPort dstDap = dstDaps[iDstDaps];
-                Long srcCluster = 
-                        topology.getL2DomainId(srcDap.getSwitchDPID());
-                Long dstCluster = 
-                        topology.getL2DomainId(dstDap.getSwitchDPID());
+                long srcCluster = srcClusters[iSrcDaps];
+                long dstCluster = dstClusters[iDstDaps];
                 
                 /*************** Determines Path from A to B************
                  * 
                  */
 
-                int srcVsDest = srcCluster.compareTo(dstCluster);
-                if (srcVsDest == 0) {
-                    if (!srcDap.equals(dstDap) && 
-                        (srcCluster != null) && 
-                        (dstCluster != null)) 
-                    		{
-                        Route route = 
-                                routingEngine.getRoute(srcDap.getSwitchDPID(),
-                                                       (short)srcDap.getPort(),
-                                                       dstDap.getSwitchDPID(),
-                                                       (short)dstDap.getPort());
-                        System.out.print("We have route, so pushing+++++++++");
+                if (srcCluster == dstCluster) {
+                    if (!srcDap.equals(dstDap)) {
+                        Route route = selectRoute(match, srcDap, dstDap);
                         if (route != null) {
                             if (log.isTraceEnabled()) {
                                 log.trace("pushRoute match={} route={} " + 
@@ -308,15 +503,28 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
                                         & ~OFMatch.OFPFW_NW_SRC_MASK
                                         & ~OFMatch.OFPFW_NW_DST_MASK;
                             }
-                            System.out.println("+++++++++++Entering pushr++++++++++++++");
-                            pushRoute(route, match, wildcard_hints, pi, sw.getId(), cookie, 
-                                      cntx, requestFlowRemovedNotifn, false,
-                                      OFFlowMod.OFPFC_ADD);
+                            if (maxPaths > 1) {
+                                // the route was picked by the flow's 5-tuple;
+                                // a coarser rule would carry every later
+                                // flow between the hosts on the same path
+                                wildcard_hints &= ~OFMatch.OFPFW_NW_PROTO
+                                        & ~OFMatch.OFPFW_TP_SRC
+                                        & ~OFMatch.OFPFW_TP_DST;
+                            }
+                            installRoute(route, match, wildcard_hints, pi, sw, cookie, 
+                                         cntx, requestFlowRemovedNotifn,
+                                         OFFlowMod.OFPFC_ADD);
+                            decisionEvents.record(sw.getId(), pi.getInPort(),
+                                    DecisionType.FORWARD,
+                                    route.getPath().size() / 2);
+                        } else {
+                            decisionEvents.record(sw.getId(), pi.getInPort(),
+                                                  DecisionType.NO_ROUTE, 0);
                         }
                     }
                     iSrcDaps++;
                     iDstDaps++;
-                } else if (srcVsDest < 0) {
+                } else if (srcCluster < dstCluster) {
                     iSrcDaps++;
                 } else {
                     iDstDaps++;
@@ -328,22 +536,243 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
         }
     }
 
+    /**
+     * Picks the route of a flow among the equal-cost routes between two
+     * attachment points by hashing the flow's 5-tuple, so that all the
+     * packets of a flow take the same path while different flows spread
+     * over all the shortest paths.  The rules of such a route match the
+     * whole 5-tuple, so they do not carry other flows.
+     */
+    protected Route selectRoute(OFMatch match, SwitchPort src, SwitchPort dst) {
+        if (maxPaths <= 1) {
+            return routingEngine.getRoute(src.getSwitchDPID(),
+                                          (short)src.getPort(),
+                                          dst.getSwitchDPID(),
+                                          (short)dst.getPort());
+        }
+        List<Route> routes =
+                routingEngine.getEqualCostRoutes(src.getSwitchDPID(),
+                                                 (short)src.getPort(),
+                                                 dst.getSwitchDPID(),
+                                                 (short)dst.getPort(),
+                                                 maxPaths);
+        if (routes.isEmpty()) return null;
+        if (routes.size() == 1) return routes.get(0);
+        return routes.get(flowHash(match) % routes.size());
+    }
+
+    /**
+     * Returns a non-negative hash of the IPv4 5-tuple of a match, or of
+     * its MAC addresses if the match is not IPv4.
+     */
+    protected static int flowHash(OFMatch match) {
+        int h;
+        if (match.getDataLayerType() == Ethernet.TYPE_IPv4) {
+            h = match.getNetworkSource();
+            h = h * 31 + match.getNetworkDestination();
+            h = h * 31 + match.getNetworkProtocol();
+            h = h * 31 + match.getTransportSource();
+            h = h * 31 + match.getTransportDestination();
+        } else {
+            h = Arrays.hashCode(match.getDataLayerSource());
+            h = h * 31 + Arrays.hashCode(match.getDataLayerDestination());
+        }
+        // mix so that nearby tuples do not pick the same route
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & 0x7fffffff;
+    }
+
+    /**
+     * Holds what is needed to send the packet-in out of the packet-in
+     * switch once its route has been installed.  The packet-in's context
+     * is not kept: the controller reuses it for the next message long
+     * before the route is confirmed.
+     */
+    protected static class PacketRelease {
+        protected IOFSwitch sw;
+        protected OFMatch match;
+        protected OFPacketIn pi;
+        protected short outPort;
+        protected InFlightFlow inFlight;
+    }
+
+    /**
+     * Installs a route and sends the packet-in out along it only after
+     * every switch on the path has confirmed its flow-mod.  The flow-mods
+     * are dispatched to all the switches without waiting for one another,
+     * destination side first, each followed by a barrier request.  When
+     * the last barrier reply arrives (or the install times out) the packet
+     * is released at the packet-in switch, so it can not race ahead of the
+     * downstream rules and come back as another packet-in.
+     */
+    @LogMessageDoc(level="ERROR",
+                   message="Failure writing flow mod to switch {switch}",
+                   explanation="An I/O error occured while writing a flow " +
+                           "mod or barrier request to the switch",
+                   recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected void installRoute(Route route, OFMatch match,
+                                Integer wildcard_hints, OFPacketIn pi,
+                                IOFSwitch pinSwitch, long cookie,
+                                FloodlightContext cntx,
+                                boolean requestFlowRemovedNotifn,
+                                short flowModCommand) {
+        List<NodePortTuple> switchPortList = route.getPath();
+        Map<Long, IOFSwitch> switches = floodlightProvider.getSwitches();
+
+        PacketRelease release = null;
+        for (int indx = 1; indx < switchPortList.size(); indx += 2) {
+            if (switchPortList.get(indx).getNodeId() == pinSwitch.getId()) {
+                release = new PacketRelease();
+                release.sw = pinSwitch;
+                release.match = match;
+                release.pi = pi;
+                release.outPort = switchPortList.get(indx).getPortId();
+                release.inFlight = inFlightFlows.add(pinSwitch.getId(), match,
+                                                     release.outPort);
+                break;
+            }
+        }
+
+        PendingInstall install = routeInstalls.begin(release);
+        for (int indx = switchPortList.size() - 1; indx > 0; indx -= 2) {
+            long switchDPID = switchPortList.get(indx).getNodeId();
+            IOFSwitch sw = switches.get(switchDPID);
+            if (sw == null) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Unable to push route, switch at DPID {} " +
+                             "not available", switchDPID);
+                }
+                continue;
+            }
+
+            OFMatch fmMatch = wildcard(match, sw, wildcard_hints);
+            fmMatch.setInputPort(switchPortList.get(indx - 1).getPortId());
+            List<OFAction> actions = new ArrayList<OFAction>(1);
+            actions.add(new OFActionOutput(switchPortList.get(indx).getPortId(),
+                                           (short)0xffff));
+            OFFlowMod fm =
+                    (OFFlowMod) floodlightProvider.getOFMessageFactory()
+                                                  .getMessage(OFType.FLOW_MOD);
+            fm.setIdleTimeout(FLOWMOD_DEFAULT_IDLE_TIMEOUT)
+              .setHardTimeout(FLOWMOD_DEFAULT_HARD_TIMEOUT)
+              .setBufferId(OFPacketOut.BUFFER_ID_NONE)
+              .setCookie(cookie)
+              .setCommand(flowModCommand)
+              .setMatch(fmMatch)
+              .setActions(actions)
+              .setLengthU(OFFlowMod.MINIMUM_LENGTH+OFActionOutput.MINIMUM_LENGTH);
+            if (requestFlowRemovedNotifn && switchDPID == pinSwitch.getId()) {
+                fm.setFlags(OFFlowMod.OFPFF_SEND_FLOW_REM);
+            }
+
+            OFBarrierRequest barrier =
+                    (OFBarrierRequest) floodlightProvider.getOFMessageFactory()
+                                                         .getMessage(OFType.BARRIER_REQUEST);
+            int xid = sw.getNextTransactionId();
+            barrier.setXid(xid);
+            routeInstalls.addBarrier(install, switchDPID, xid);
+
+            try {
+                if (log.isTraceEnabled()) {
+                    log.trace("installRoute flowmod sw={} inPort={} outPort={}",
+                              new Object[] {sw, fmMatch.getInputPort(),
+                                            switchPortList.get(indx).getPortId()});
+                }
+                counterStore.updatePktOutFMCounterStore(sw, fm);
+                messageDamper.write(sw, fm, cntx);
+                sw.write(barrier, cntx);
+                // flush right away so that every hop is programmed in
+                // parallel instead of one after the other
+                sw.flush();
+            } catch (IOException e) {
+                log.error("Failure writing flow mod to switch {}", sw, e);
+            }
+        }
+        routeInstalls.arm(install);
+    }
+
+    @Override
+    public void routeInstalled(PendingInstall install, boolean timedOut) {
+        PacketRelease release = (PacketRelease) install.getAttachment();
+        if (install.isAborted()) {
+            log.debug("Route install aborted, a switch on the path " +
+                      "disconnected; dropping packet");
+        } else if (timedOut) {
+            log.debug("Route install timed out after {} ms, releasing packet",
+                      routeInstalls.getTimeoutMs());
+        }
+        if (release == null) return;
+
+        List<OFPacketIn> held = release.inFlight.release();
+        if (!install.isAborted() && release.sw.isConnected()) {
+            // runs on the thread of the last barrier reply or on the timeout
+            // task; neither has a context of its own for these writes, and
+            // the timeout task's are not flushed by the I/O loop
+            pushPacket(release.sw, release.match, release.pi, release.outPort,
+                       null);
+            for (OFPacketIn pi : held) {
+                pushPacket(release.sw, release.match, pi, release.outPort,
+                           null);
+            }
+            release.sw.flush();
+        }
+        inFlightFlows.complete(release.sw.getId(), release.inFlight);
+    }
+
+    // IForwardingService
+
+    @Override
+    public RouteInstallTracker getRouteInstallTracker() {
+        return routeInstalls;
+    }
+
+    @Override
+    public InFlightFlowTable getInFlightFlowTable() {
+        return inFlightFlows;
+    }
+
+    @Override
+    public ProactiveRouteInstaller getProactiveRouteInstaller() {
+        return proactiveRoutes;
+    }
+
+    @Override
+    public DecisionEventRecorder getDecisionEventRecorder() {
+        return decisionEvents;
+    }
+
+    @Override
+    public PacketInLanes getPacketInLanes() {
+        return lanes;
+    }
+
+    @Override
+    public Command receive(IOFSwitch sw, OFMessage msg, FloodlightContext cntx) {
+        if (msg.getType() == OFType.BARRIER_REPLY) {
+            routeInstalls.barrierReply(sw.getId(), msg.getXid());
+            return Command.CONTINUE;
+        }
+        return super.receive(sw, msg, cntx);
+    }
     
     /***************************************FIU CODE STARTS HERE**************************
     
     /**
-     * Creates a OFPacketOut with the OFPacketIn data that is flooded on all ports unless 
-     * the port is blocked, in which case the packet will be dropped.
+     * Installs a flow-mod on the switch that floods the OFPacketIn along the
+     * static flood tree.  The output ports for the packet's switch and input
+     * port are looked up in the current {@link FloodTable}; if the table has
+     * no entry the flow-mod has no actions and the packet is dropped.
+     * Nothing is installed if the input port is blocked.
      * @param sw The switch that receives the OFPacketIn
      * @param pi The OFPacketIn that came to the switch
      * @param cntx The FloodlightContext associated with this OFPacketIn
      */
     @LogMessageDoc(level="ERROR",
-                   message="Failure writing PacketOut " +
-                   		"switch={switch} packet-in={packet-in} " +
-                   		"packet-out={packet-out}",
-                   explanation="An I/O error occured while writing a packet " +
-                   		"out message to the switch",
+                   message="Failure writing FIU flow mod",
+                   explanation="An I/O error occured while writing a flood " +
+                   		"flow mod to the switch",
                    recommendation=LogMessageDoc.CHECK_SWITCH)
     protected void doFlood(IOFSwitch sw, OFPacketIn pi, FloodlightContext cntx) {
         if (topology.isIncomingBroadcastAllowed(sw.getId(),
@@ -353,335 +782,40 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
                           "from a blocked port, srcSwitch=[{},{}], linkInfo={}",
                           new Object[] {pi, sw.getId(),pi.getInPort()});
             }
+            decisionEvents.record(sw.getId(), pi.getInPort(),
+                                  DecisionType.FLOOD_BLOCKED, 0);
             return;
         }
         
         OFMatch match = new OFMatch();
         match.loadFromPacket(pi.getPacketData(), pi.getInPort());
        
-        // Create flow-mod based on packet-in and src-switch
-        OFFlowMod fm =
-                (OFFlowMod) floodlightProvider.getOFMessageFactory()
-                                              .getMessage(OFType.FLOW_MOD);
-        List<OFAction> actions = new ArrayList<OFAction>(); // Set no action to
-        if(sw.getId()== FIU_101 && pi.getInPort() == 26){		//26 --> {27,28}
-        	actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-               }        
-        else if(sw.getId()==FIU_101 && pi.getInPort() == 28){		//28 --> {27,26}
-        	actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-        }
-        else if(sw.getId()==FIU_101 && pi.getInPort() == 27){		//27 -- > {26,28}
-        	actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-        }
-        else if(sw.getId()==FIU_101 && pi.getInPort() == 25){		//27 -- > {26,28}
-        	actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-          }
-        //102
-        else if(sw.getId()== FIU_102 && pi.getInPort() == 30){		//30 --> {31,32}
-            actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                 }
-        else if(sw.getId()==FIU_102 && pi.getInPort() == 32){		//32 --> {30,31}
-            actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-          }
-        else if(sw.getId()==FIU_102 && pi.getInPort() == 29){		//29 -- > {30,32}
-            actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-          }
-        else if(sw.getId()==FIU_102 && pi.getInPort() == 31){		//31 -- > {30,32}
-            actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-            }
-          //103
-        else if(sw.getId()== FIU_103 && pi.getInPort() == 34){		//34 --> {36,35}
-              actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-                   }
-        else if(sw.getId()==FIU_103 && pi.getInPort() == 36){		//36 --> {34,35}
-              actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-            }
-        else if(sw.getId()==FIU_103 && pi.getInPort() == 35){		//35 -- > {34,36}
-              actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)36,(short)0xFFFF));
+        // The actions for this switch port are pre-built in the flood
+        // table; only the match, buffer id and cookie are per packet-in.
+        OFFlowMod fm;
+        FloodFlowModTemplate template =
+                floodTable.lookupTemplate(sw.getId(), pi.getInPort());
+        if (template != null) {
+            fm = template.newFlowMod(match, pi.getBufferId(), FLOOD_COOKIE);
+            decisionEvents.record(sw.getId(), pi.getInPort(),
+                                  DecisionType.FLOOD, 0);
+        } else {
+            if (log.isTraceEnabled()) {
+                log.trace("doFlood, no flood table entry for switch={} " +
+                          "port={}, dropping", sw, pi.getInPort());
             }
-        else if(sw.getId()==FIU_103 && pi.getInPort() == 33){		//33 -- > {34,36}
-              actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-              }
-            //104
-        else if(sw.getId()== FIU_104 && pi.getInPort() == 38){		//38 --> {39,40}
-                actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                     }
-        else if(sw.getId()==FIU_104 && pi.getInPort() == 40){		//40 --> {39,38}
-                actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-              }
-        else if(sw.getId()==FIU_104 && pi.getInPort() == 37){		//37 -- > {38,40}
-                actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-              }
-        else if(sw.getId()==FIU_104 && pi.getInPort() == 39){		//39 -- > {38,40}
-                actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                }
-              //105
-        else if(sw.getId()== FIU_105 && pi.getInPort() == 26){		//26 --> {27,28}
-                  actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_105 && pi.getInPort() == 28){		//28 --> {27,26}
-                  actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_105 && pi.getInPort() == 27){		//27 -- > {26,28}
-                  actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_105 && pi.getInPort() == 25){		//25 -- > {26,28}
-                  actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-                  }
-              //106
-        else if(sw.getId()== FIU_106 && pi.getInPort() == 30){		//30 --> {32,31}
-                  actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_106 && pi.getInPort() == 32){		//32 --> {30,31}
-                  actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_106 && pi.getInPort() == 29){		//29 -- > {30,32}
-                  actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_106 && pi.getInPort() == 31){		//31 -- > {30,32}
-                  actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                  }
-              //107
-        else if(sw.getId()== FIU_107 && pi.getInPort() == 34){		//34 --> {35,36}
-                  actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_107 && pi.getInPort() == 36){		//36 --> {35,34}
-                  actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_107 && pi.getInPort() == 35){		//35 -- > {34,36}
-                  actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_107 && pi.getInPort() == 33){		//33 -- > {34,36}
-                  actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-                  }
-              //108
-        else if(sw.getId()== FIU_108 && pi.getInPort() == 38){		//38 --> {40,39}
-                  actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_108 && pi.getInPort() == 40){		//40 --> {38,39}
-                  actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_108 && pi.getInPort() == 39){		//39 -- > {38,40}
-                  actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_108 && pi.getInPort() == 37){		//37 -- > {38,40}
-                  actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                  }
-              
-              /**********************AGGR LAYER*********************************
-               * 
-               */
-              
-             //201
-        
-        else if(sw.getId()== FIU_201 && pi.getInPort() == 43){		//43 --> {42,41}
-                  actions.add(new OFActionOutput((short)42,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_201 && pi.getInPort() == 42){		//42 --> {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_201 && pi.getInPort() == 44){		//44 -- > {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-              //202
-        else if(sw.getId()== FIU_202 && pi.getInPort() == 45){		//45 --> {46,47}
-                  actions.add(new OFActionOutput((short)46,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 46){		//46 --> {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 48){		//48 -- > {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-              //203
-        else if(sw.getId()== FIU_203 && pi.getInPort() == 51){		//51 --> {52,49}
-                  actions.add(new OFActionOutput((short)52,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 20333333333333+++++++++++++");
-                       }
-        else if(sw.getId()==FIU_203 && pi.getInPort() == 50){		//50 --> {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 20333333333333+++++++++++++");
-                }
-        else if(sw.getId()==FIU_203 && pi.getInPort() == 52){		//52 -- > {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 20333333333333+++++++++++++");
+            fm = (OFFlowMod) floodlightProvider.getOFMessageFactory()
+                                               .getMessage(OFType.FLOW_MOD);
+            fm.setCookie(FLOOD_COOKIE)
+              .setHardTimeout((short) 0)
+              .setIdleTimeout((short) 0)
+              .setBufferId(pi.getBufferId())
+              .setMatch(match)
+              .setActions(Collections.<OFAction>emptyList())
+              .setLengthU(OFFlowMod.MINIMUM_LENGTH);
+            decisionEvents.record(sw.getId(), pi.getInPort(),
+                                  DecisionType.FLOOD_NO_ENTRY, 0);
         }
-              //204
-        else if(sw.getId()== FIU_204 && pi.getInPort() == 53){		//53 --> {56,55}
-                  actions.add(new OFActionOutput((short)56,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_204 && pi.getInPort() == 54){		//54 --> {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_204 && pi.getInPort() == 56){		//56 -- > {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-              //205
-        else if(sw.getId()== FIU_205 && pi.getInPort() == 43){		//43 --> {44,41}
-                  actions.add(new OFActionOutput((short)44,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_205 && pi.getInPort() == 44){		//44 --> {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_205 && pi.getInPort() == 42){		//42 -- > {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-              //206
-        else if(sw.getId()== FIU_206 && pi.getInPort() == 45){		//45 --> {47,48}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)48,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_206 && pi.getInPort() == 46){		//46 --> {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_206 && pi.getInPort() == 48){		//48 -- > {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-              //207
-        else if(sw.getId()== FIU_207 && pi.getInPort() == 51){		//51 --> {50,49}
-                  actions.add(new OFActionOutput((short)50,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_207 && pi.getInPort() == 52){		//52 --> {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_207 && pi.getInPort() == 50){		//50 -- > {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                }
-              //208
-        else if(sw.getId()== FIU_202 && pi.getInPort() == 53){		//53 --> {55,56}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)56,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 54){		//54 --> {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 56){		//56 -- > {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-              
-              /**********************CORE LAYER*********************************
-               * 
-               */
-              
-             //301
-        
-        else if(sw.getId()== FIU_301 && pi.getInPort() == 58){		//58 --> {57,60,59}
-                  actions.add(new OFActionOutput((short)57,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)60,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)59,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30111111111+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_301 && pi.getInPort() == 57){		//57 --> {58,60,59}
-                  actions.add(new OFActionOutput((short)58,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)60,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)59,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 3011111111111111+++++++++++++\n");
-                }
-              
-            //302
-      
-        else if(sw.getId()== FIU_302 && pi.getInPort() == 64){		//64 --> {62,61,63}
-                  actions.add(new OFActionOutput((short)62,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)63,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 3022222222222222222222222+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_302 && pi.getInPort() == 63){		//63 --> {62,64,61}
-                  actions.add(new OFActionOutput((short)62,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)64,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 3022222222222222222222222+++++++++++++\n");
-                }
-              
-            //303
-        else if(sw.getId()== FIU_303 && pi.getInPort() == 59){		//59 --> {57,58,60}
-                  actions.add(new OFActionOutput((short)57,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)58,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)60,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30333333333333+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_303 && pi.getInPort() == 60){		//60 --> {57,58,59}
-                  actions.add(new OFActionOutput((short)57,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)58,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)59,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30333333333333+++++++++++++\n");
-                }
-            //304
-        else if(sw.getId()== FIU_304 && pi.getInPort() == 63){		//63 --> {62,61,64}
-                  actions.add(new OFActionOutput((short)62,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)64,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30444444444444+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_304 && pi.getInPort() == 62){		//62 --> {63,61,64}
-                  actions.add(new OFActionOutput((short)63,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)64,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 304444444444444444+++++++++++++\n");
-                }                                                   // drop
-        long cookie = AppCookie.makeCookie(FORWARDING_APP_ID, 0);
-        
-        fm.setCookie(cookie)
-          .setHardTimeout((short) 0)
-          .setIdleTimeout((short) 0)
-          .setBufferId(pi.getBufferId())
-          .setMatch(match)
-          .setActions(actions)
-          .setLengthU(OFFlowMod.MINIMUM_LENGTH+OFActionOutput.MINIMUM_LENGTH*actions.size()); // +OFActionOutput.MINIMUM_LENGTH);
 
         try {
             if (log.isDebugEnabled()) {
@@ -692,390 +826,115 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
         } catch (IOException e) {
             log.error("Failure writing FIU flow mod", e);
         }
-  
-        // Set Action to flood
-      /*  OFPacketOut po = 
-            (OFPacketOut) floodlightProvider.getOFMessageFactory().getMessage(OFType.PACKET_OUT);
-        List<OFAction> actions = new ArrayList<OFAction>();
-        
+    }
 
-         
-       
-        if (sw.hasAttribute(IOFSwitch.PROP_SUPPORTS_OFPP_FLOOD)) {
-            actions.add(new OFActionOutput(OFPort.OFPP_FLOOD.getValue(), 
-                                           (short)0xFFFF));
-        } else {
-            actions.add(new OFActionOutput(OFPort.OFPP_ALL.getValue(), 
-                                           (short)0xFFFF));
-        }
-        
-        //System.out.print("\n++++Switch ID"+sw.getId()+" In Port:"+pi.getInPort());
+    /**
+     * Replaces the flood table used by doFlood.  The swap is atomic;
+     * packet-ins being processed finish with the table they started with.
+     * @param table The new flood table
+     */
+    public void setFloodTable(FloodTable table) {
+        if (table == null) return;
+        floodTable = table;
+        log.info("Flood table replaced, {} entries", table.size());
+    }
 
-       /***************************************TOR LAYER**************************
-        * 
-        */
-        //101
-        
-        /*
-        if(sw.getId()== FIU_101 && pi.getInPort() == 26){		//26 --> {27,28}
-        	actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-               }
-        
-        else if(sw.getId()==FIU_101 && pi.getInPort() == 28){		//28 --> {27,26}
-        	actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-        }
-        else if(sw.getId()==FIU_101 && pi.getInPort() == 27){		//27 -- > {26,28}
-        	actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-        }
-        else if(sw.getId()==FIU_101 && pi.getInPort() == 25){		//27 -- > {26,28}
-        	actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-        	actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-          }
-        //102
-        else if(sw.getId()== FIU_102 && pi.getInPort() == 30){		//30 --> {31,32}
-            actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                 }
-        else if(sw.getId()==FIU_102 && pi.getInPort() == 32){		//32 --> {30,31}
-            actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-          }
-        else if(sw.getId()==FIU_102 && pi.getInPort() == 29){		//29 -- > {30,32}
-            actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-          }
-        else if(sw.getId()==FIU_102 && pi.getInPort() == 31){		//31 -- > {30,32}
-            actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-            actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-            }
-          //103
-        else if(sw.getId()== FIU_103 && pi.getInPort() == 34){		//34 --> {36,35}
-              actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-                   }
-        else if(sw.getId()==FIU_103 && pi.getInPort() == 36){		//36 --> {34,35}
-              actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-            }
-        else if(sw.getId()==FIU_103 && pi.getInPort() == 35){		//35 -- > {34,36}
-              actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-            }
-        else if(sw.getId()==FIU_103 && pi.getInPort() == 33){		//33 -- > {34,36}
-              actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-              actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-              }
-            //104
-        else if(sw.getId()== FIU_104 && pi.getInPort() == 38){		//38 --> {39,40}
-                actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                     }
-        else if(sw.getId()==FIU_104 && pi.getInPort() == 40){		//40 --> {39,38}
-                actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-              }
-        else if(sw.getId()==FIU_104 && pi.getInPort() == 37){		//37 -- > {38,40}
-                actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-              }
-        else if(sw.getId()==FIU_104 && pi.getInPort() == 39){		//39 -- > {38,40}
-                actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                }
-              //105
-        else if(sw.getId()== FIU_105 && pi.getInPort() == 26){		//26 --> {27,28}
-                  actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_105 && pi.getInPort() == 28){		//28 --> {27,26}
-                  actions.add(new OFActionOutput((short)27,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_105 && pi.getInPort() == 27){		//27 -- > {26,28}
-                  actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_105 && pi.getInPort() == 25){		//25 -- > {26,28}
-                  actions.add(new OFActionOutput((short)26,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)28,(short)0xFFFF));
-                  }
-              //106
-        else if(sw.getId()== FIU_106 && pi.getInPort() == 30){		//30 --> {32,31}
-                  actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_106 && pi.getInPort() == 32){		//32 --> {30,31}
-                  actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)31,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_106 && pi.getInPort() == 29){		//29 -- > {30,32}
-                  actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_106 && pi.getInPort() == 31){		//31 -- > {30,32}
-                  actions.add(new OFActionOutput((short)30,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)32,(short)0xFFFF));
-                  }
-              //107
-        else if(sw.getId()== FIU_107 && pi.getInPort() == 34){		//34 --> {35,36}
-                  actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_107 && pi.getInPort() == 36){		//36 --> {35,34}
-                  actions.add(new OFActionOutput((short)35,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_107 && pi.getInPort() == 35){		//35 -- > {34,36}
-                  actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_107 && pi.getInPort() == 33){		//33 -- > {34,36}
-                  actions.add(new OFActionOutput((short)34,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)36,(short)0xFFFF));
-                  }
-              //108
-        else if(sw.getId()== FIU_108 && pi.getInPort() == 38){		//38 --> {40,39}
-                  actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_108 && pi.getInPort() == 40){		//40 --> {38,39}
-                  actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)39,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_108 && pi.getInPort() == 39){		//39 -- > {38,40}
-                  actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_108 && pi.getInPort() == 37){		//37 -- > {38,40}
-                  actions.add(new OFActionOutput((short)38,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)40,(short)0xFFFF));
-                  }
-              
-              /**********************AGGR LAYER*********************************
-               * 
-               */
-              
-             //201
-        /*
-        else if(sw.getId()== FIU_201 && pi.getInPort() == 43){		//43 --> {42,41}
-                  actions.add(new OFActionOutput((short)42,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_201 && pi.getInPort() == 42){		//42 --> {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_201 && pi.getInPort() == 44){		//44 -- > {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-              //202
-        else if(sw.getId()== FIU_202 && pi.getInPort() == 45){		//45 --> {46,47}
-                  actions.add(new OFActionOutput((short)46,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 46){		//46 --> {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 48){		//48 -- > {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-              //203
-        else if(sw.getId()== FIU_203 && pi.getInPort() == 51){		//51 --> {52,49}
-                  actions.add(new OFActionOutput((short)52,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 20333333333333+++++++++++++");
-                       }
-        else if(sw.getId()==FIU_203 && pi.getInPort() == 50){		//50 --> {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 20333333333333+++++++++++++");
-                }
-        else if(sw.getId()==FIU_203 && pi.getInPort() == 52){		//52 -- > {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 20333333333333+++++++++++++");
-        }
-              //204
-        else if(sw.getId()== FIU_204 && pi.getInPort() == 53){		//53 --> {56,55}
-                  actions.add(new OFActionOutput((short)56,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_204 && pi.getInPort() == 54){		//54 --> {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_204 && pi.getInPort() == 56){		//56 -- > {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-              //205
-        else if(sw.getId()== FIU_205 && pi.getInPort() == 43){		//43 --> {44,41}
-                  actions.add(new OFActionOutput((short)44,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_205 && pi.getInPort() == 44){		//44 --> {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_205 && pi.getInPort() == 42){		//42 -- > {43,41}
-                  actions.add(new OFActionOutput((short)43,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)41,(short)0xFFFF));
-                }
-              //206
-        else if(sw.getId()== FIU_206 && pi.getInPort() == 45){		//45 --> {47,48}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)48,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_206 && pi.getInPort() == 46){		//46 --> {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_206 && pi.getInPort() == 48){		//48 -- > {47,45}
-                  actions.add(new OFActionOutput((short)47,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)45,(short)0xFFFF));
-                }
-              //207
-        else if(sw.getId()== FIU_207 && pi.getInPort() == 51){		//51 --> {50,49}
-                  actions.add(new OFActionOutput((short)50,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_207 && pi.getInPort() == 52){		//52 --> {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_207 && pi.getInPort() == 50){		//50 -- > {51,49}
-                  actions.add(new OFActionOutput((short)51,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)49,(short)0xFFFF));
-                }
-              //208
-        else if(sw.getId()== FIU_202 && pi.getInPort() == 53){		//53 --> {55,56}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)56,(short)0xFFFF));
-                       }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 54){		//54 --> {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-        else if(sw.getId()==FIU_202 && pi.getInPort() == 56){		//56 -- > {55,53}
-                  actions.add(new OFActionOutput((short)55,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)53,(short)0xFFFF));
-                }
-              
-              /**********************CORE LAYER*********************************
-               * 
-               */
-              
-             //301
-        /*
-        else if(sw.getId()== FIU_301 && pi.getInPort() == 58){		//58 --> {57,60,59}
-                  actions.add(new OFActionOutput((short)57,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)60,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)59,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30111111111+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_301 && pi.getInPort() == 57){		//57 --> {58,60,59}
-                  actions.add(new OFActionOutput((short)58,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)60,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)59,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 3011111111111111+++++++++++++\n");
-                }
-              
-            //302
-      
-        else if(sw.getId()== FIU_302 && pi.getInPort() == 64){		//64 --> {62,61,63}
-                  actions.add(new OFActionOutput((short)62,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)63,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 3022222222222222222222222+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_302 && pi.getInPort() == 63){		//63 --> {62,64,61}
-                  actions.add(new OFActionOutput((short)62,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)64,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 3022222222222222222222222+++++++++++++\n");
-                }
-              
-            //303
-        else if(sw.getId()== FIU_303 && pi.getInPort() == 59){		//59 --> {57,58,60}
-                  actions.add(new OFActionOutput((short)57,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)58,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)60,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30333333333333+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_303 && pi.getInPort() == 60){		//60 --> {57,58,59}
-                  actions.add(new OFActionOutput((short)57,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)58,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)59,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30333333333333+++++++++++++\n");
-                }
-            //304
-        else if(sw.getId()== FIU_304 && pi.getInPort() == 63){		//63 --> {62,61,64}
-                  actions.add(new OFActionOutput((short)62,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)64,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 30444444444444+++++++++++++\n");
-                       }
-        else if(sw.getId()==FIU_304 && pi.getInPort() == 62){		//62 --> {63,61,64}
-                  actions.add(new OFActionOutput((short)63,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)61,(short)0xFFFF));
-                  actions.add(new OFActionOutput((short)64,(short)0xFFFF));
-                  System.out.print("+++++++++++++++++++Adding Actions for 304444444444444444+++++++++++++\n");
-                }
+    public FloodTable getFloodTable() {
+        return floodTable;
+    }
 
-        //ORIGINAL 
-       // po.setActions(actions);
-      //  po.setActionsLength((short)(OFActionOutput.MINIMUM_LENGTH));
-        
-        
-        /*
-        po.setActions(actions);
-        po.setActionsLength((short)(OFActionOutput.MINIMUM_LENGTH*actions.size()));
-        System.out.print("++++++ACTION SIZE IS++++++++++++: "+actions.size());
-
-        // set buffer-id, in-port and packet-data based on packet-in
-        short poLength = (short)(po.getActionsLength() + OFPacketOut.MINIMUM_LENGTH);
-        po.setBufferId(pi.getBufferId());
-        po.setInPort(pi.getInPort());
-        if (pi.getBufferId() == OFPacketOut.BUFFER_ID_NONE) {
-            byte[] packetData = pi.getPacketData();
-            poLength += packetData.length;
-            po.setPacketData(packetData);
-        }
-        po.setLength(poLength);
-        
+    /**
+     * Reloads the flood table from the file named by the "floodtable"
+     * configuration option.  The current table is kept if the file can
+     * not be read or parsed.
+     * @return true if a new table was loaded
+     */
+    @LogMessageDoc(level="ERROR",
+                   message="Error loading flood table from {file}, " +
+                           "keeping the current table",
+                   explanation="The flood table file could not be read or " +
+                           "contains an invalid entry",
+                   recommendation="Correct the flood table file.")
+    public boolean reloadFloodTable() {
+        if (floodTableFile == null) return false;
         try {
-            if (log.isTraceEnabled()) {
-                log.trace("Writing flood PacketOut switch={} packet-in={} packet-out={}",
-                          new Object[] {sw, pi, po});
-            }
-            messageDamper.write(sw, po, cntx);
+            setFloodTable(FloodTable.load(floodTableFile));
+            return true;
         } catch (IOException e) {
-            log.error("Failure writing PacketOut switch={} packet-in={} packet-out={}",
-                    new Object[] {sw, pi, po}, e);
-        }   */         
-
-        return;
-    } //doFlood() ends here
+            log.error("Error loading flood table from {}, " +
+                      "keeping the current table", floodTableFile, e);
+        } catch (IllegalArgumentException e) {
+            log.error("Error loading flood table from {}, " +
+                      "keeping the current table", floodTableFile, e);
+        }
+        return false;
+    }
     
+    // IDeviceListener
+
+    @Override
+    public void deviceAdded(IDevice device) {
+        if (proactiveRoutes != null) proactiveRoutes.deviceChanged(device);
+    }
+
+    @Override
+    public void deviceRemoved(IDevice device) {
+        attachmentPoints.invalidate(device);
+        if (proactiveRoutes != null) proactiveRoutes.deviceChanged(device);
+    }
+
+    @Override
+    public void deviceMoved(IDevice device) {
+        attachmentPoints.invalidate(device);
+        if (proactiveRoutes != null) proactiveRoutes.deviceChanged(device);
+    }
+
+    // IOFSwitchListener
+
+    @Override
+    public void addedSwitch(IOFSwitch sw) {
+        if (proactiveRoutes != null) proactiveRoutes.switchAdded(sw.getId());
+    }
+
+    @Override
+    public void removedSwitch(IOFSwitch sw) {
+        // the packets held for the switch's flows can not be sent anymore
+        routeInstalls.removeSwitch(sw.getId());
+        inFlightFlows.removeSwitch(sw.getId());
+        if (proactiveRoutes != null) proactiveRoutes.switchRemoved(sw.getId());
+    }
+
+    @Override
+    public void switchPortChanged(Long switchId) {
+    }
+
+    // ITopologyListener
+
+    @Override
+    public void topologyChanged() {
+        attachmentPoints.topologyChanged();
+        if (proactiveRoutes != null) proactiveRoutes.schedule();
+    }
+
     // IFloodlightModule methods
     
     @Override
     public Collection<Class<? extends IFloodlightService>> getModuleServices() {
-        // We don't export any services
-        return null;
+        Collection<Class<? extends IFloodlightService>> l = 
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IForwardingService.class);
+        return l;
     }
 
     @Override
     public Map<Class<? extends IFloodlightService>, IFloodlightService>
             getServiceImpls() {
-        // We don't have any services
-        return null;
+        Map<Class<? extends IFloodlightService>,
+            IFloodlightService> m = 
+                new HashMap<Class<? extends IFloodlightService>,
+                    IFloodlightService>();
+        m.put(IForwardingService.class, this);
+        return m;
     }
 
     @Override
@@ -1087,6 +946,9 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
         l.add(IRoutingService.class);
         l.add(ITopologyService.class);
         l.add(ICounterStoreService.class);
+        l.add(IThreadPoolService.class);
+        l.add(IRestApiService.class);
+        l.add(ILinkDiscoveryService.class);
         return l;
     }
 
@@ -1105,6 +967,68 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
                 explanation="The properties file contains an invalid " +
                             "flow hard timeout",
                 recommendation="Correct the hard timeout in the " +
+                                "properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing in-flight flow table options, " +
+                        "using capacity {number} and timeout {number} ms",
+                explanation="The properties file contains an invalid " +
+                            "in-flight flow table capacity or timeout",
+                recommendation="Correct the in-flight flow table options " +
+                                "in the properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing route install timeout, " +
+                        "using default of {number} ms",
+                explanation="The properties file contains an invalid " +
+                            "route install timeout",
+                recommendation="Correct the route install timeout in the " +
+                                "properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing packet-in lane options, " +
+                        "using {number} lanes with queue capacity {number}",
+                explanation="The properties file contains an invalid " +
+                            "lane count or lane queue capacity",
+                recommendation="Correct the lane options in the " +
+                                "properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Unknown packet-in lane key {key}, " +
+                        "dispatching by switch",
+                explanation="The lane key must be either switch or flow",
+                recommendation="Correct the lane key in the " +
+                                "properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing decision event buffer size, " +
+                        "using default of {number}",
+                explanation="The properties file contains an invalid " +
+                            "decision event buffer size",
+                recommendation="Correct the decision event buffer size " +
+                                "in the properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing proactive flow-mod rate, " +
+                        "using default of {number} flow-mods per second",
+                explanation="The properties file contains an invalid " +
+                            "proactive flow-mod rate",
+                recommendation="Correct the proactive flow-mod rate " +
+                                "in the properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing proactive host limit, " +
+                        "using default of {number} hosts",
+                explanation="The properties file contains an invalid " +
+                            "host limit for host pair proactive rules",
+                recommendation="Correct the proactive host limit " +
+                                "in the properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing maximum number of paths, " +
+                        "using default of {number}",
+                explanation="The properties file contains an invalid " +
+                            "maximum number of equal-cost paths",
+                recommendation="Correct the maximum number of paths " +
+                                "in the properties file."),
+        @LogMessageDoc(level="WARN",
+                message="Unknown proactive mode {mode}, " +
+                        "using reactive forwarding only",
+                explanation="The proactive mode must be one of false, " +
+                            "pairs, destination or fattree",
+                recommendation="Correct the proactive mode in the " +
                                 "properties file.")
     })
     public void init(FloodlightModuleContext context) throws FloodlightModuleException {
@@ -1114,6 +1038,9 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
         this.routingEngine = context.getServiceImpl(IRoutingService.class);
         this.topology = context.getServiceImpl(ITopologyService.class);
         this.counterStore = context.getServiceImpl(ICounterStoreService.class);
+        this.threadPool = context.getServiceImpl(IThreadPoolService.class);
+        this.restApi = context.getServiceImpl(IRestApiService.class);
+        this.linkDiscovery = context.getServiceImpl(ILinkDiscoveryService.class);
         
         // read our config options
         Map<String, String> configOptions = context.getConfigParams(this);
@@ -1141,10 +1068,199 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule, Swi
                   FLOWMOD_DEFAULT_IDLE_TIMEOUT);
         log.debug("FlowMod hard timeout set to {} seconds", 
                   FLOWMOD_DEFAULT_HARD_TIMEOUT);
+
+        long routeInstallTimeout = RouteInstallTracker.DEFAULT_TIMEOUT_MS;
+        try {
+            String timeout = configOptions.get("routeinstalltimeout");
+            if (timeout != null) {
+                routeInstallTimeout = Long.parseLong(timeout);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing route install timeout, " +
+                     "using default of {} ms", routeInstallTimeout);
+        }
+        routeInstalls = new RouteInstallTracker(this, routeInstallTimeout);
+        int inFlightCapacity = InFlightFlowTable.DEFAULT_CAPACITY;
+        long inFlightTimeout = InFlightFlowTable.DEFAULT_TIMEOUT_MS;
+        try {
+            String capacity = configOptions.get("inflightcapacity");
+            if (capacity != null) {
+                inFlightCapacity = Integer.parseInt(capacity);
+            }
+            String timeout = configOptions.get("inflighttimeout");
+            if (timeout != null) {
+                inFlightTimeout = Long.parseLong(timeout);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing in-flight flow table options, " +
+                     "using capacity {} and timeout {} ms",
+                     inFlightCapacity, inFlightTimeout);
+        }
+        if (inFlightTimeout < routeInstallTimeout) {
+            // an entry must outlive its route install, or the next
+            // packet-in of a slow install pushes the route again
+            log.debug("In-flight flow timeout raised to the route install " +
+                      "timeout of {} ms", routeInstallTimeout);
+            inFlightTimeout = routeInstallTimeout;
+        }
+        inFlightFlows = new InFlightFlowTable(inFlightCapacity, inFlightTimeout);
+
+        attachmentPoints = new AttachmentPointCache(topology);
+
+        int decisionEventCount = DecisionEventRecorder.DEFAULT_CAPACITY;
+        try {
+            String count = configOptions.get("decisionevents");
+            if (count != null) {
+                decisionEventCount = Integer.parseInt(count);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing decision event buffer size, " +
+                     "using default of {}", decisionEventCount);
+        }
+        decisionEvents = new DecisionEventRecorder(decisionEventCount);
+
+        try {
+            String paths = configOptions.get("maxpaths");
+            if (paths != null) {
+                maxPaths = Integer.parseInt(paths);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing maximum number of paths, " +
+                     "using default of {}", maxPaths);
+        }
+        log.debug("Hashing flows over up to {} equal-cost paths", maxPaths);
+
+        String mode = configOptions.get("proactive");
+        if (mode == null || mode.equals("false")) {
+            proactiveMode = ProactiveMode.NONE;
+        } else if (mode.equals("true") || mode.equals("pairs")) {
+            proactiveMode = ProactiveMode.PAIRS;
+        } else if (mode.equals("destination")) {
+            proactiveMode = ProactiveMode.DESTINATION;
+        } else if (mode.equals("fattree")) {
+            proactiveMode = ProactiveMode.FATTREE;
+        } else {
+            log.warn("Unknown proactive mode {}, " +
+                     "using reactive forwarding only", mode);
+        }
+        proactiveMatchIp = "ip".equals(configOptions.get("destinationmatch"));
+        proactiveRate = RateLimitedFlowModPusher.DEFAULT_FLOWMODS_PER_SECOND;
+        try {
+            String rate = configOptions.get("proactiverate");
+            if (rate != null) {
+                proactiveRate = Integer.parseInt(rate);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing proactive flow-mod rate, " +
+                     "using default of {} flow-mods per second",
+                     proactiveRate);
+        }
+        try {
+            String hosts = configOptions.get("proactivemaxhosts");
+            if (hosts != null) {
+                proactiveMaxHosts = Integer.parseInt(hosts);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing proactive host limit, " +
+                     "using default of {} hosts", proactiveMaxHosts);
+        }
+
+        int laneCount = 0;
+        int laneQueueCapacity = PacketInLanes.DEFAULT_QUEUE_CAPACITY;
+        try {
+            String count = configOptions.get("lanes");
+            if (count != null) {
+                laneCount = Integer.parseInt(count);
+            }
+            String capacity = configOptions.get("lanequeuecapacity");
+            if (capacity != null) {
+                laneQueueCapacity = Integer.parseInt(capacity);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing packet-in lane options, " +
+                     "using {} lanes with queue capacity {}",
+                     laneCount, laneQueueCapacity);
+        }
+        String laneKey = configOptions.get("lanekey");
+        if (laneKey != null && !laneKey.equals("switch")) {
+            if (laneKey.equals("flow")) {
+                laneByFlow = true;
+            } else {
+                log.warn("Unknown packet-in lane key {}, " +
+                         "dispatching by switch", laneKey);
+            }
+        }
+        if (laneCount > 0) {
+            lanes = new PacketInLanes("Forwarding", laneCount,
+                                      laneQueueCapacity);
+            log.debug("Processing packet-ins on {} lanes by {}", laneCount,
+                      laneByFlow ? "flow" : "switch");
+        }
+
+        floodTable = FloodTable.getDefault();
+        floodTableFile = configOptions.get("floodtable");
+        reloadFloodTable();
+        log.debug("Flood table has {} entries", floodTable.size());
     }
 
     @Override
+    @LogMessageDoc(level="ERROR",
+                   message="Exception in route install timeout task",
+                   explanation="An unknown error occured while releasing " +
+                           "the packets of timed out route installs",
+                   recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     public void startUp(FloodlightModuleContext context) {
         super.startUp();
+        floodlightProvider.addOFMessageListener(OFType.BARRIER_REPLY, this);
+        floodlightProvider.addOFSwitchListener(this);
+        topology.addListener(this);
+        restApi.addRestletRoutable(new ForwardingWebRoutable());
+
+        // Release the packets of route installs whose barrier replies
+        // did not all arrive in time.
+        final long period = Math.max(1, routeInstalls.getTimeoutMs() / 2);
+        ScheduledExecutorService ses = threadPool.getScheduledExecutor();
+        routeInstallTimeoutTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    routeInstalls.expire();
+                } catch (Exception e) {
+                    log.error("Exception in route install timeout task", e);
+                } finally {
+                    routeInstallTimeoutTask.reschedule(period,
+                                                       TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        routeInstallTimeoutTask.reschedule(period, TimeUnit.MILLISECONDS);
+
+        switch (proactiveMode) {
+            case PAIRS:
+                proactiveRoutes = new ProactiveRouteInstaller(floodlightProvider,
+                        deviceManager, routingEngine, attachmentPoints, ses,
+                        proactiveRate, PROACTIVE_COOKIE);
+                proactiveRoutes.setMaxHosts(proactiveMaxHosts);
+                break;
+            case DESTINATION:
+                proactiveRoutes = new DestinationRuleInstaller(floodlightProvider,
+                        deviceManager, routingEngine, topology, attachmentPoints,
+                        ses, proactiveRate, PROACTIVE_COOKIE, proactiveMatchIp);
+                break;
+            case FATTREE:
+                proactiveRoutes = new FatTreeRuleInstaller(floodlightProvider,
+                        deviceManager, routingEngine, topology, linkDiscovery,
+                        FatTreeLayout.fromPortStatistics(new FIUPortStatistics()),
+                        attachmentPoints, ses, proactiveRate, PROACTIVE_COOKIE,
+                        proactiveMatchIp);
+                break;
+            default:
+                break;
+        }
+        if (proactiveRoutes != null) {
+            proactiveRoutes.start();
+            log.debug("Proactive {} route installation enabled, {} flow-mods " +
+                      "per second per switch", proactiveMode, proactiveRate);
+        }
     }
 }
@@ -0,0 +1,34 @@
+package net.floodlightcontroller.forwarding;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+public interface IForwardingService extends IFloodlightService {
+
+    /**
+     * Returns the tracker of barrier-confirmed route installs, which
+     * also keeps the route install latency statistics.
+     */
+    public RouteInstallTracker getRouteInstallTracker();
+
+    /**
+     * Returns the table of flows whose route install is in progress.
+     */
+    public InFlightFlowTable getInFlightFlowTable();
+
+    /**
+     * Returns the proactive host pair route installer, or null if
+     * proactive forwarding is disabled.
+     */
+    public ProactiveRouteInstaller getProactiveRouteInstaller();
+
+    /**
+     * Returns the buffer of the most recent forwarding decisions.
+     */
+    public DecisionEventRecorder getDecisionEventRecorder();
+
+    /**
+     * Returns the packet-in worker lanes, or null if packet-ins are
+     * processed on the thread that delivers them.
+     */
+    public PacketInLanes getPacketInLanes();
+}
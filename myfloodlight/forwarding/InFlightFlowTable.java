@@ -0,0 +1,180 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.util.LRUHashMap;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPacketIn;
+
+/**
+ * Tracks flows whose flow-mods have been sent to the switches but are not
+ * yet known to be installed.  While a flow is in flight, further packet-ins
+ * for the same match on the same switch can be sent out of the already
+ * chosen port instead of recomputing the route and pushing the same
+ * flow-mods again.  Packets that arrive before the install is confirmed
+ * are held and released together with the first packet of the flow.
+ *
+ * An entry expires when the route install it belongs to is confirmed by
+ * the barrier replies of the switches on the path, or after a timeout.
+ * The table for each switch is bounded and evicts the least recently used
+ * entry when full.
+ */
+public class InFlightFlowTable {
+    public static final int DEFAULT_CAPACITY = 1024;
+    /** As long as the route install timeout, which completes an entry */
+    public static final long DEFAULT_TIMEOUT_MS =
+            RouteInstallTracker.DEFAULT_TIMEOUT_MS;
+    public static final int MAX_HELD_PACKETS = 16;
+
+    /**
+     * A flow in flight on the switch that punted its first packet.
+     */
+    public static class InFlightFlow {
+        private final OFMatch match;
+        private final short outPort;
+        private final long expires;
+        private List<OFPacketIn> held;
+        private boolean released;
+
+        InFlightFlow(OFMatch match, short outPort, long expires) {
+            this.match = match;
+            this.outPort = outPort;
+            this.expires = expires;
+        }
+
+        public OFMatch getMatch() {
+            return match;
+        }
+
+        /** The port the flow leaves the switch on */
+        public short getOutPort() {
+            return outPort;
+        }
+
+        /**
+         * Holds a packet until the flow's route is confirmed.  Returns
+         * false if the route has already been released or too many packets
+         * are held, in which case the caller sends the packet right away.
+         */
+        public synchronized boolean hold(OFPacketIn pi) {
+            if (released) return false;
+            if (held == null) held = new ArrayList<OFPacketIn>(4);
+            if (held.size() >= MAX_HELD_PACKETS) return false;
+            held.add(pi);
+            return true;
+        }
+
+        /**
+         * Marks the route as released and returns the packets held so far.
+         */
+        public synchronized List<OFPacketIn> release() {
+            released = true;
+            List<OFPacketIn> result = held;
+            held = null;
+            if (result == null) return Collections.emptyList();
+            return result;
+        }
+    }
+
+    protected ConcurrentMap<Long, LRUHashMap<OFMatch, InFlightFlow>> switchTables;
+    protected int capacity;
+    protected long timeoutNanos;
+
+    protected AtomicLong coalesced = new AtomicLong();
+    protected AtomicLong confirmed = new AtomicLong();
+    protected AtomicLong expiredByTimeout = new AtomicLong();
+
+    public InFlightFlowTable(int capacity, long timeoutMs) {
+        this.switchTables =
+                new ConcurrentHashMap<Long, LRUHashMap<OFMatch, InFlightFlow>>();
+        this.capacity = capacity;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    protected LRUHashMap<OFMatch, InFlightFlow> getSwitchTable(long dpid) {
+        LRUHashMap<OFMatch, InFlightFlow> t = switchTables.get(dpid);
+        if (t == null) {
+            t = new LRUHashMap<OFMatch, InFlightFlow>(capacity);
+            LRUHashMap<OFMatch, InFlightFlow> old = switchTables.putIfAbsent(dpid, t);
+            if (old != null) t = old;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the in-flight entry for a match on a switch, or null if
+     * there is none or it has timed out.
+     */
+    public InFlightFlow get(long dpid, OFMatch match) {
+        LRUHashMap<OFMatch, InFlightFlow> t = switchTables.get(dpid);
+        if (t == null) return null;
+        synchronized (t) {
+            InFlightFlow f = t.get(match);
+            if (f == null) return null;
+            if (System.nanoTime() - f.expires >= 0) {
+                t.remove(match);
+                expiredByTimeout.incrementAndGet();
+                return null;
+            }
+            coalesced.incrementAndGet();
+            return f;
+        }
+    }
+
+    /**
+     * Records that the flow-mods for a match have been sent and the flow
+     * leaves the switch on outPort.
+     */
+    public InFlightFlow add(long dpid, OFMatch match, short outPort) {
+        InFlightFlow f = new InFlightFlow(match, outPort,
+                                          System.nanoTime() + timeoutNanos);
+        LRUHashMap<OFMatch, InFlightFlow> t = getSwitchTable(dpid);
+        synchronized (t) {
+            t.put(match, f);
+        }
+        return f;
+    }
+
+    /**
+     * Called when the route install of an in-flight flow is confirmed.
+     * The entry is removed unless it has been replaced since.
+     */
+    public void complete(long dpid, InFlightFlow f) {
+        LRUHashMap<OFMatch, InFlightFlow> t = switchTables.get(dpid);
+        if (t == null) return;
+        synchronized (t) {
+            if (t.get(f.match) == f) {
+                t.remove(f.match);
+                confirmed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of a switch that disconnected, and the packets
+     * held with them.
+     */
+    public void removeSwitch(long dpid) {
+        switchTables.remove(dpid);
+    }
+
+    /** Number of packet-ins served from an in-flight entry */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getConfirmedCount() {
+        return confirmed.get();
+    }
+
+    public long getExpiredByTimeoutCount() {
+        return expiredByTimeout.get();
+    }
+}
@@ -0,0 +1,99 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of single-threaded worker lanes for packet-in processing.
+ * Every task is dispatched to the lane selected by its key, so tasks with
+ * the same key run one at a time in the order they were submitted, while
+ * tasks with different keys can run in parallel on different lanes.
+ *
+ * Each lane has a bounded queue.  A task submitted to a full lane is
+ * rejected and counted rather than blocking the thread that delivered
+ * the packet-in.
+ */
+public class PacketInLanes {
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    protected ThreadPoolExecutor[] lanes;
+    protected AtomicLong[] dispatched;
+    protected AtomicLong rejected = new AtomicLong();
+
+    public PacketInLanes(final String name, int laneCount, int queueCapacity) {
+        if (laneCount < 1)
+            throw new IllegalArgumentException("laneCount must be positive");
+        lanes = new ThreadPoolExecutor[laneCount];
+        dispatched = new AtomicLong[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            final String threadName = name + "-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, threadName);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            dispatched[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Returns the lane that tasks with the given key are dispatched to.
+     */
+    public int getLane(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 32);
+        return (int)((h & Long.MAX_VALUE) % lanes.length);
+    }
+
+    /**
+     * Queues a task on the lane selected by the key.
+     * @return false if the lane's queue is full and the task was dropped
+     */
+    public boolean execute(long key, Runnable task) {
+        int lane = getLane(key);
+        try {
+            lanes[lane].execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        dispatched[lane].incrementAndGet();
+        return true;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /** Number of tasks waiting in the queue of each lane */
+    public int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].getQueue().size();
+        }
+        return depths;
+    }
+
+    /** Number of tasks dispatched to each lane */
+    public long[] getDispatchedCounts() {
+        long[] counts = new long[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            counts[i] = dispatched[i].get();
+        }
+        return counts;
+    }
+
+    /** Number of tasks dropped because their lane was full */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
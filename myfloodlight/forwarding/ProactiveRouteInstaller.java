@@ -0,0 +1,462 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.annotations.LogMessageDocs;
+import net.floodlightcontroller.core.util.SingletonTask;
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.forwarding.AttachmentPointCache.AttachmentPoints;
+import net.floodlightcontroller.forwarding.RateLimitedFlowModPusher.IFlowModDropListener;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.routing.IRoutingService;
+import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Installs routes for every pair of known hosts ahead of traffic, so that
+ * the first packet between two hosts does not wait for the controller.
+ *
+ * After a topology change the routes of all host pairs are recomputed
+ * (debounced, on the thread pool); after a device event only the routes
+ * between the changed hosts and every other host are.  The result is
+ * compared to the rules already installed.  Only new or changed rules are
+ * added and only stale rules are deleted, so a recomputation that changes
+ * nothing sends no flow-mods.  Every rule matches on the source and
+ * destination MAC and is written through a
+ * {@link RateLimitedFlowModPusher}.
+ *
+ * A topology change costs a route lookup per host pair, and every switch
+ * holds a rule per host pair routed through it, so this only suits small
+ * networks.  Above {@link #DEFAULT_MAX_HOSTS} hosts (configurable) no
+ * rules are installed; larger networks should use destination rules,
+ * whose tables grow with the hosts rather than the host pairs.
+ */
+@LogMessageCategory("Flow Programming")
+public class ProactiveRouteInstaller {
+    protected static Logger log =
+            LoggerFactory.getLogger(ProactiveRouteInstaller.class);
+
+    /** Delay between a trigger and the recomputation, in milliseconds */
+    protected static final int RECOMPUTE_DELAY_MS = 200;
+    /** Most hosts host pair rules are installed for by default */
+    public static final int DEFAULT_MAX_HOSTS = 256;
+
+    /**
+     * A rule on one switch.  The match is shared by the flow-mods built
+     * for the rule and must not be modified.
+     */
+    protected static class RuleKey {
+        final long dpid;
+        final OFMatch match;
+
+        RuleKey(long dpid, OFMatch match) {
+            this.dpid = dpid;
+            this.match = match;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(dpid ^ (dpid >>> 32)) * 31 + match.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof RuleKey)) return false;
+            RuleKey other = (RuleKey) obj;
+            return dpid == other.dpid && match.equals(other.match);
+        }
+    }
+
+    protected IFloodlightProviderService floodlightProvider;
+    protected IDeviceService deviceManager;
+    protected IRoutingService routingEngine;
+    protected AttachmentPointCache attachmentPoints;
+    protected RateLimitedFlowModPusher pusher;
+    protected long cookie;
+    protected SingletonTask recomputeTask;
+
+    /** Installed rules and their output port; only used by recomputeTask */
+    protected Map<RuleKey, Short> installed;
+    /**
+     * Switches whose rules may not all be installed, because they
+     * connected, disconnected or had flow-mods dropped.  Their entries in
+     * installed are forgotten at the next recomputation.
+     */
+    protected Set<Long> resetSwitches;
+    /** Whether the next recomputation must recompute every rule */
+    protected AtomicBoolean fullRecompute = new AtomicBoolean();
+    /** Hosts that were added, moved or removed since the last recomputation */
+    protected Queue<IDevice> changedDevices;
+    protected int maxHosts = DEFAULT_MAX_HOSTS;
+    /** Whether the last recomputation found too many hosts */
+    protected boolean overLimit;
+
+    protected AtomicLong recomputations = new AtomicLong();
+    protected volatile int hostCount;
+    protected volatile int ruleCount;
+    protected volatile long lastRecomputeMs;
+
+    public ProactiveRouteInstaller(IFloodlightProviderService floodlightProvider,
+                                   IDeviceService deviceManager,
+                                   IRoutingService routingEngine,
+                                   AttachmentPointCache attachmentPoints,
+                                   ScheduledExecutorService ses,
+                                   int flowModsPerSecond, long cookie) {
+        this.floodlightProvider = floodlightProvider;
+        this.deviceManager = deviceManager;
+        this.routingEngine = routingEngine;
+        this.attachmentPoints = attachmentPoints;
+        this.cookie = cookie;
+        this.installed = new HashMap<RuleKey, Short>();
+        this.resetSwitches =
+                Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        this.changedDevices = new ConcurrentLinkedQueue<IDevice>();
+        this.pusher = new RateLimitedFlowModPusher(floodlightProvider, ses,
+                flowModsPerSecond, new IFlowModDropListener() {
+                    @Override
+                    public void flowModsDropped(long dpid, int count) {
+                        resetSwitch(dpid);
+                    }
+                });
+        this.recomputeTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recompute();
+                } catch (Exception e) {
+                    log.error("Exception in proactive route computation", e);
+                }
+            }
+        });
+    }
+
+    public void start() {
+        pusher.start();
+        schedule();
+    }
+
+    /**
+     * Sets the most hosts rules are installed for.  With more hosts the
+     * installed rules are deleted and forwarding is reactive only.
+     */
+    public void setMaxHosts(int maxHosts) {
+        this.maxHosts = maxHosts;
+    }
+
+    /**
+     * Schedules a recomputation of all host pair routes.  Triggers that
+     * arrive before it runs are coalesced into one recomputation.
+     */
+    public void schedule() {
+        fullRecompute.set(true);
+        recomputeTask.reschedule(RECOMPUTE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules a recomputation of the routes of a host that was added,
+     * moved or removed.
+     */
+    public void deviceChanged(IDevice device) {
+        changedDevices.add(device);
+        recomputeTask.reschedule(RECOMPUTE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called when a switch connects.  A switch may come back within the
+     * recomputation delay, so its rules are pushed again either way.
+     */
+    public void switchAdded(long dpid) {
+        resetSwitch(dpid);
+    }
+
+    public void switchRemoved(long dpid) {
+        pusher.clearSwitch(dpid);
+        resetSwitch(dpid);
+    }
+
+    /**
+     * Schedules a recomputation that pushes all the rules of a switch,
+     * not only those that changed.
+     */
+    protected void resetSwitch(long dpid) {
+        resetSwitches.add(dpid);
+        schedule();
+    }
+
+    @LogMessageDocs({
+        @LogMessageDoc(level="ERROR",
+                message="Exception in proactive route computation",
+                explanation="An unknown error occured while computing " +
+                        "the routes of all host pairs",
+                recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG),
+        @LogMessageDoc(level="WARN",
+                message="{number} hosts exceed the limit of {number} for " +
+                        "proactive rules, forwarding reactively",
+                explanation="The network has more hosts than proactive " +
+                        "rules are installed for",
+                recommendation="Use destination proactive rules, or raise " +
+                        "the host limit if the switch flow tables allow it.")
+    })
+    protected void recompute() {
+        long start = System.nanoTime();
+
+        // forget what was installed on switches that have left, come
+        // back or lost flow-mods, so that their rules are pushed again
+        Set<Long> reset = new HashSet<Long>();
+        Iterator<Long> rit = resetSwitches.iterator();
+        while (rit.hasNext()) {
+            reset.add(rit.next());
+            rit.remove();
+        }
+        List<IDevice> changed = new ArrayList<IDevice>();
+        IDevice device;
+        while ((device = changedDevices.poll()) != null) {
+            changed.add(device);
+        }
+        boolean full = fullRecompute.getAndSet(false) || !reset.isEmpty();
+
+        List<IDevice> devices = new ArrayList<IDevice>();
+        for (IDevice d : deviceManager.getAllDevices()) {
+            if (d.getAttachmentPoints().length > 0) devices.add(d);
+        }
+
+        Map<RuleKey, Short> desired = null;
+        if (devices.size() > maxHosts) {
+            if (!overLimit) {
+                log.warn("{} hosts exceed the limit of {} for proactive " +
+                         "rules, forwarding reactively",
+                         devices.size(), maxHosts);
+            }
+            overLimit = true;
+            desired = new HashMap<RuleKey, Short>();
+        } else {
+            if (!full && !overLimit) {
+                // only the rules of the changed hosts are recomputed
+                desired = new HashMap<RuleKey, Short>(installed);
+                if (!computeDeviceRules(devices, changed, desired))
+                    desired = null;
+            }
+            if (desired == null) {
+                overLimit = false;
+                desired = new HashMap<RuleKey, Short>();
+                computeRules(devices, desired);
+            }
+        }
+
+        Set<Long> connected = floodlightProvider.getSwitches().keySet();
+        Iterator<RuleKey> it = installed.keySet().iterator();
+        while (it.hasNext()) {
+            long dpid = it.next().dpid;
+            if (reset.contains(dpid) || !connected.contains(dpid)) it.remove();
+        }
+
+        int added = 0, deleted = 0;
+        for (Map.Entry<RuleKey, Short> e : installed.entrySet()) {
+            if (!desired.containsKey(e.getKey())) {
+                pusher.push(e.getKey().dpid,
+                            buildFlowMod(e.getKey(), OFFlowMod.OFPFC_DELETE_STRICT,
+                                         OFPort.OFPP_NONE.getValue()));
+                deleted++;
+            }
+        }
+        for (Map.Entry<RuleKey, Short> e : desired.entrySet()) {
+            Short outPort = installed.get(e.getKey());
+            if (outPort == null || !outPort.equals(e.getValue())) {
+                pusher.push(e.getKey().dpid,
+                            buildFlowMod(e.getKey(), OFFlowMod.OFPFC_ADD,
+                                         e.getValue()));
+                added++;
+            }
+        }
+        installed = desired;
+
+        recomputations.incrementAndGet();
+        hostCount = devices.size();
+        ruleCount = desired.size();
+        lastRecomputeMs =
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (log.isDebugEnabled()) {
+            log.debug("Proactive routes for {} hosts: {} rules, {} added, " +
+                      "{} deleted in {} ms",
+                      new Object[] {hostCount, ruleCount, added, deleted,
+                                    lastRecomputeMs});
+        }
+    }
+
+    /**
+     * Computes the rules that should be installed for the given hosts and
+     * their output ports.  Adds a rule for every switch on the route of
+     * every host pair.
+     */
+    protected void computeRules(List<IDevice> devices,
+                                Map<RuleKey, Short> rules) {
+        for (IDevice src : devices) {
+            AttachmentPoints srcAps = attachmentPoints.get(src);
+            for (IDevice dst : devices) {
+                if (src == dst) continue;
+                addRoutes(rules, getPairMatch(src, dst), srcAps,
+                          attachmentPoints.get(dst));
+            }
+        }
+    }
+
+    /**
+     * Updates the rules installed for the given hosts after some of them
+     * were added, moved or removed: drops the rules of the changed hosts
+     * and adds the routes between each of them and every other host.
+     * @param rules The rules installed so far, updated in place
+     * @return false if the rules must be computed from scratch instead
+     */
+    protected boolean computeDeviceRules(List<IDevice> devices,
+                                         List<IDevice> changed,
+                                         Map<RuleKey, Short> rules) {
+        if (changed.isEmpty()) return true;
+        Set<Long> macs = new HashSet<Long>();
+        for (IDevice d : changed) {
+            macs.add(d.getMACAddress());
+        }
+        Iterator<RuleKey> it = rules.keySet().iterator();
+        while (it.hasNext()) {
+            OFMatch match = it.next().match;
+            if (macs.contains(Ethernet.toLong(match.getDataLayerSource())) ||
+                macs.contains(Ethernet.toLong(match.getDataLayerDestination())))
+                it.remove();
+        }
+        for (IDevice d : devices) {
+            if (!macs.contains(d.getMACAddress())) continue;
+            AttachmentPoints aps = attachmentPoints.get(d);
+            for (IDevice other : devices) {
+                if (other == d) continue;
+                AttachmentPoints otherAps = attachmentPoints.get(other);
+                addRoutes(rules, getPairMatch(d, other), aps, otherAps);
+                addRoutes(rules, getPairMatch(other, d), otherAps, aps);
+            }
+        }
+        return true;
+    }
+
+    protected OFMatch getPairMatch(IDevice src, IDevice dst) {
+        OFMatch match = new OFMatch();
+        match.setWildcards(OFMatch.OFPFW_ALL
+                           & ~OFMatch.OFPFW_DL_SRC
+                           & ~OFMatch.OFPFW_DL_DST);
+        match.setDataLayerSource(Ethernet.toByteArray(src.getMACAddress()));
+        match.setDataLayerDestination(Ethernet.toByteArray(dst.getMACAddress()));
+        return match;
+    }
+
+    /**
+     * Adds the rules of the routes between every pair of attachment points
+     * of two hosts that are in the same cluster.
+     */
+    protected void addRoutes(Map<RuleKey, Short> rules, OFMatch match,
+                             AttachmentPoints srcAps, AttachmentPoints dstAps) {
+        SwitchPort[] srcDaps = srcAps.getSwitchPorts();
+        long[] srcClusters = srcAps.getClusterIds();
+        SwitchPort[] dstDaps = dstAps.getSwitchPorts();
+        long[] dstClusters = dstAps.getClusterIds();
+
+        int i = 0, j = 0;
+        while (i < srcDaps.length && j < dstDaps.length) {
+            if (srcClusters[i] == dstClusters[j]) {
+                SwitchPort srcDap = srcDaps[i];
+                SwitchPort dstDap = dstDaps[j];
+                if (!srcDap.equals(dstDap)) {
+                    Route route =
+                            routingEngine.getRoute(srcDap.getSwitchDPID(),
+                                                   (short)srcDap.getPort(),
+                                                   dstDap.getSwitchDPID(),
+                                                   (short)dstDap.getPort());
+                    if (route != null) {
+                        List<NodePortTuple> path = route.getPath();
+                        for (int k = 1; k < path.size(); k += 2) {
+                            NodePortTuple npt = path.get(k);
+                            rules.put(new RuleKey(npt.getNodeId(), match),
+                                      npt.getPortId());
+                        }
+                    }
+                }
+                i++;
+                j++;
+            } else if (srcClusters[i] < dstClusters[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+    }
+
+    protected OFFlowMod buildFlowMod(RuleKey rule, short command, short outPort) {
+        OFFlowMod fm =
+                (OFFlowMod) floodlightProvider.getOFMessageFactory()
+                                              .getMessage(OFType.FLOW_MOD);
+        List<OFAction> actions = new ArrayList<OFAction>(1);
+        int length = OFFlowMod.MINIMUM_LENGTH;
+        if (command != OFFlowMod.OFPFC_DELETE_STRICT) {
+            actions.add(new OFActionOutput(outPort, (short)0xffff));
+            length += OFActionOutput.MINIMUM_LENGTH;
+        }
+        fm.setIdleTimeout((short) 0)
+          .setHardTimeout((short) 0)
+          .setBufferId(OFPacketOut.BUFFER_ID_NONE)
+          .setCookie(cookie)
+          .setCommand(command)
+          .setOutPort(OFPort.OFPP_NONE.getValue())
+          .setMatch(rule.match)
+          .setActions(actions)
+          .setLengthU(length);
+        return fm;
+    }
+
+    public RateLimitedFlowModPusher getPusher() {
+        return pusher;
+    }
+
+    public long getRecomputations() {
+        return recomputations.get();
+    }
+
+    /** Number of hosts with an attachment point at the last recomputation */
+    public int getHostCount() {
+        return hostCount;
+    }
+
+    /** Number of rules installed at the last recomputation */
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    public long getLastRecomputeMs() {
+        return lastRecomputeMs;
+    }
+}
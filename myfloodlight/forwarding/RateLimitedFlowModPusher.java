@@ -0,0 +1,166 @@
+package net.floodlightcontroller.forwarding;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.util.SingletonTask;
+
+import org.openflow.protocol.OFFlowMod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queues proactively computed flow-mods per switch and writes them out at
+ * a bounded rate, so that a burst of rules after a topology change does
+ * not overrun the flow-mod processing of any one switch.
+ *
+ * Every switch may receive up to the configured number of flow-mods per
+ * second; the queues are drained in small batches by a periodic task.
+ * Flow-mods that are dropped or fail to be written are reported to the
+ * listener, so that the rules they carried can be pushed again.
+ */
+@LogMessageCategory("Flow Programming")
+public class RateLimitedFlowModPusher {
+    protected static Logger log =
+            LoggerFactory.getLogger(RateLimitedFlowModPusher.class);
+
+    public static final int DEFAULT_FLOWMODS_PER_SECOND = 1000;
+    /** Interval between two batches, in milliseconds */
+    protected static final int DRAIN_INTERVAL_MS = 100;
+
+    public interface IFlowModDropListener {
+        /**
+         * Called when flow-mods queued for a switch were dropped or could
+         * not be written to it.
+         */
+        void flowModsDropped(long dpid, int count);
+    }
+
+    protected IFloodlightProviderService floodlightProvider;
+    protected ConcurrentMap<Long, Queue<OFFlowMod>> queues;
+    protected AtomicInteger queued = new AtomicInteger();
+    protected AtomicLong pushed = new AtomicLong();
+    protected AtomicLong dropped = new AtomicLong();
+    protected int batchSize;
+    protected SingletonTask drainTask;
+    protected IFlowModDropListener dropListener;
+
+    public RateLimitedFlowModPusher(IFloodlightProviderService floodlightProvider,
+                                    ScheduledExecutorService ses,
+                                    int flowModsPerSecond,
+                                    IFlowModDropListener dropListener) {
+        this.floodlightProvider = floodlightProvider;
+        this.dropListener = dropListener;
+        this.queues = new ConcurrentHashMap<Long, Queue<OFFlowMod>>();
+        this.batchSize = Math.max(1, flowModsPerSecond * DRAIN_INTERVAL_MS / 1000);
+        this.drainTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain();
+                } catch (Exception e) {
+                    log.error("Exception in flow-mod drain task", e);
+                } finally {
+                    drainTask.reschedule(DRAIN_INTERVAL_MS,
+                                         TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    public void start() {
+        drainTask.reschedule(DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a flow-mod for a switch.
+     */
+    public void push(long dpid, OFFlowMod fm) {
+        Queue<OFFlowMod> q = queues.get(dpid);
+        if (q == null) {
+            q = new ConcurrentLinkedQueue<OFFlowMod>();
+            Queue<OFFlowMod> old = queues.putIfAbsent(dpid, q);
+            if (old != null) q = old;
+        }
+        q.add(fm);
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Drops the flow-mods still queued for a switch.
+     */
+    public void clearSwitch(long dpid) {
+        Queue<OFFlowMod> q = queues.remove(dpid);
+        if (q == null) return;
+        int n = q.size();
+        queued.addAndGet(-n);
+        dropped.addAndGet(n);
+        if (n > 0) dropListener.flowModsDropped(dpid, n);
+    }
+
+    @LogMessageDoc(level="ERROR",
+                   message="Failure writing proactive flow mod to switch {}",
+                   explanation="An I/O error occured while writing a " +
+                           "proactive flow mod to a switch",
+                   recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected void drain() {
+        Map<Long, IOFSwitch> switches = floodlightProvider.getSwitches();
+        for (Map.Entry<Long, Queue<OFFlowMod>> e : queues.entrySet()) {
+            Queue<OFFlowMod> q = e.getValue();
+            if (q.isEmpty()) continue;
+            IOFSwitch sw = switches.get(e.getKey());
+            if (sw == null) {
+                // the switch is gone; the listener is told, so that its
+                // rules are pushed again when it comes back
+                clearSwitch(e.getKey());
+                continue;
+            }
+            OFFlowMod fm;
+            int n = 0;
+            try {
+                while (n < batchSize && (fm = q.poll()) != null) {
+                    queued.decrementAndGet();
+                    sw.write(fm, null);
+                    n++;
+                }
+                sw.flush();
+            } catch (IOException ex) {
+                log.error("Failure writing proactive flow mod to switch " +
+                          sw.getStringId(), ex);
+                dropped.incrementAndGet();
+                dropListener.flowModsDropped(e.getKey(), 1);
+            }
+            pushed.addAndGet(n);
+        }
+    }
+
+    /** Number of flow-mods waiting to be written */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /** Number of flow-mods written to switches */
+    public long getPushedCount() {
+        return pushed.get();
+    }
+
+    /**
+     * Number of queued flow-mods dropped because their switch left, or
+     * that could not be written
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
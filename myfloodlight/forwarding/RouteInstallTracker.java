@@ -0,0 +1,227 @@
+package net.floodlightcontroller.forwarding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks routes whose flow-mods have been dispatched to all the switches
+ * on the path and are waiting for the barrier replies that confirm them.
+ * When every switch has replied, or the install times out, the listener
+ * is told so that it can release the packet that triggered the route.
+ * The tracker also keeps the route install latency statistics.
+ */
+public class RouteInstallTracker {
+    public static final long DEFAULT_TIMEOUT_MS = 1000;
+
+    public interface IRouteInstallListener {
+        /**
+         * Called once for every route install, when all the barriers
+         * have been replied to or the install has timed out.
+         */
+        void routeInstalled(PendingInstall install, boolean timedOut);
+    }
+
+    /**
+     * A route install in progress.  The attachment is whatever the caller
+     * needs to release the buffered packet.
+     */
+    public static class PendingInstall {
+        private final Object attachment;
+        private final long startNanos;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final List<long[]> barriers = new ArrayList<long[]>();
+        private volatile boolean aborted;
+
+        PendingInstall(Object attachment) {
+            this.attachment = attachment;
+            this.startNanos = System.nanoTime();
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /**
+         * Whether a switch on the path disconnected before replying.  An
+         * aborted install is reported as timed out.
+         */
+        public boolean isAborted() {
+            return aborted;
+        }
+    }
+
+    protected ConcurrentMap<Long, ConcurrentMap<Integer, PendingInstall>> barriers;
+    protected Set<PendingInstall> pending;
+    protected IRouteInstallListener listener;
+    protected long timeoutNanos;
+
+    protected AtomicLong installs = new AtomicLong();
+    protected AtomicLong timeouts = new AtomicLong();
+    protected AtomicLong aborts = new AtomicLong();
+    protected AtomicLong totalNanos = new AtomicLong();
+    protected AtomicLong maxNanos = new AtomicLong();
+    protected volatile long lastNanos;
+
+    public RouteInstallTracker(IRouteInstallListener listener, long timeoutMs) {
+        this.barriers =
+                new ConcurrentHashMap<Long, ConcurrentMap<Integer, PendingInstall>>();
+        this.pending = Collections.newSetFromMap(
+                new ConcurrentHashMap<PendingInstall, Boolean>());
+        this.listener = listener;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    public long getTimeoutMs() {
+        return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+    }
+
+    /**
+     * Starts tracking a new route install.  Barriers must be added with
+     * {@link #addBarrier} and the install armed with {@link #arm} once all
+     * of them have been sent.
+     */
+    public PendingInstall begin(Object attachment) {
+        PendingInstall p = new PendingInstall(attachment);
+        // hold one count until the install is armed, so that an early
+        // barrier reply can not complete it while barriers are still sent
+        p.outstanding.set(1);
+        pending.add(p);
+        return p;
+    }
+
+    /**
+     * Registers the barrier request sent to a switch after its flow-mod.
+     */
+    public void addBarrier(PendingInstall p, long dpid, int xid) {
+        ConcurrentMap<Integer, PendingInstall> m = barriers.get(dpid);
+        if (m == null) {
+            m = new ConcurrentHashMap<Integer, PendingInstall>();
+            ConcurrentMap<Integer, PendingInstall> old =
+                    barriers.putIfAbsent(dpid, m);
+            if (old != null) m = old;
+        }
+        p.outstanding.incrementAndGet();
+        synchronized (p.barriers) {
+            p.barriers.add(new long[] {dpid, xid});
+        }
+        m.put(xid, p);
+    }
+
+    /**
+     * Marks that all the barriers of the install have been sent.
+     */
+    public void arm(PendingInstall p) {
+        if (p.outstanding.decrementAndGet() == 0) complete(p, false);
+    }
+
+    /**
+     * Called when a barrier reply is received from a switch.
+     */
+    public void barrierReply(long dpid, int xid) {
+        ConcurrentMap<Integer, PendingInstall> m = barriers.get(dpid);
+        if (m == null) return;
+        PendingInstall p = m.remove(xid);
+        if (p == null) return;
+        if (p.outstanding.decrementAndGet() == 0) complete(p, false);
+    }
+
+    /**
+     * Completes every install that has been waiting longer than the
+     * timeout.  Called periodically.
+     */
+    public void expire() {
+        long now = System.nanoTime();
+        for (PendingInstall p : pending) {
+            if (now - p.startNanos >= timeoutNanos) {
+                complete(p, true);
+            }
+        }
+    }
+
+    /**
+     * Aborts the installs still waiting for a barrier reply from a switch
+     * that disconnected, rather than letting them time out.
+     */
+    public void removeSwitch(long dpid) {
+        ConcurrentMap<Integer, PendingInstall> m = barriers.remove(dpid);
+        if (m == null) return;
+        for (PendingInstall p : m.values()) {
+            p.aborted = true;
+            complete(p, true);
+        }
+    }
+
+    protected void complete(PendingInstall p, boolean timedOut) {
+        if (!p.done.compareAndSet(false, true)) return;
+        pending.remove(p);
+        if (timedOut) {
+            synchronized (p.barriers) {
+                for (long[] b : p.barriers) {
+                    ConcurrentMap<Integer, PendingInstall> m = barriers.get(b[0]);
+                    if (m != null) m.remove((int)b[1], p);
+                }
+            }
+            if (p.aborted) {
+                aborts.incrementAndGet();
+            } else {
+                timeouts.incrementAndGet();
+            }
+        } else {
+            long elapsed = System.nanoTime() - p.startNanos;
+            installs.incrementAndGet();
+            totalNanos.addAndGet(elapsed);
+            lastNanos = elapsed;
+            long max;
+            while (elapsed > (max = maxNanos.get())) {
+                if (maxNanos.compareAndSet(max, elapsed)) break;
+            }
+        }
+        listener.routeInstalled(p, timedOut);
+    }
+
+    /** Number of routes confirmed by barrier replies on every hop */
+    public long getInstalls() {
+        return installs.get();
+    }
+
+    /** Number of routes whose barriers did not all arrive in time */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /** Number of routes a switch on the path disconnected from */
+    public long getAborts() {
+        return aborts.get();
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public long getAverageLatencyUs() {
+        long n = installs.get();
+        if (n == 0) return 0;
+        return TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / n);
+    }
+
+    public long getMaxLatencyUs() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    public long getLastLatencyUs() {
+        return TimeUnit.NANOSECONDS.toMicros(lastNanos);
+    }
+}
@@ -0,0 +1,36 @@
+package net.floodlightcontroller.forwarding.web;
+
+import java.util.List;
+
+import net.floodlightcontroller.forwarding.DecisionEventRecorder;
+import net.floodlightcontroller.forwarding.DecisionEventRecorder.DecisionEvent;
+import net.floodlightcontroller.forwarding.IForwardingService;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Returns the most recent forwarding decisions, oldest first.  The number
+ * of events is given by the optional count attribute and defaults to the
+ * whole buffer.
+ */
+public class DecisionEventsResource extends ServerResource {
+    @Get("json")
+    public List<DecisionEvent> retrieve() {
+        IForwardingService forwarding =
+                (IForwardingService)getContext().getAttributes().
+                    get(IForwardingService.class.getCanonicalName());
+        DecisionEventRecorder recorder = forwarding.getDecisionEventRecorder();
+
+        int count = recorder.getCapacity();
+        String countStr = (String) getRequestAttributes().get("count");
+        if (countStr != null) {
+            try {
+                count = Integer.parseInt(countStr);
+            } catch (NumberFormatException e) {
+                // fall back to the whole buffer
+            }
+        }
+        return recorder.getLastEvents(count);
+    }
+}
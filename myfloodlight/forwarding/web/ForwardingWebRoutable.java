@@ -0,0 +1,30 @@
+package net.floodlightcontroller.forwarding.web;
+
+import org.restlet.Context;
+import org.restlet.routing.Router;
+
+import net.floodlightcontroller.restserver.RestletRoutable;
+
+public class ForwardingWebRoutable implements RestletRoutable {
+    /**
+     * Create the Restlet router and bind to the proper resources.
+     */
+    @Override
+    public Router getRestlet(Context context) {
+        Router router = new Router(context);
+        router.attach("/routeinstall/json", RouteInstallResource.class);
+        router.attach("/lanes/json", PacketInLanesResource.class);
+        router.attach("/proactive/json", ProactiveRoutesResource.class);
+        router.attach("/events/json", DecisionEventsResource.class);
+        router.attach("/events/{count}/json", DecisionEventsResource.class);
+        return router;
+    }
+
+    /**
+     * Set the base path for Forwarding
+     */
+    @Override
+    public String basePath() {
+        return "/wm/forwarding";
+    }
+}
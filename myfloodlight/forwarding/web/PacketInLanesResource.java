@@ -0,0 +1,35 @@
+package net.floodlightcontroller.forwarding.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.forwarding.IForwardingService;
+import net.floodlightcontroller.forwarding.PacketInLanes;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Returns the packet-in lane count, queue depths and dispatch counters.
+ * The lane count is 0 when packet-ins are processed inline.
+ */
+public class PacketInLanesResource extends ServerResource {
+    @Get("json")
+    public Map<String, Object> retrieve() {
+        IForwardingService forwarding =
+                (IForwardingService)getContext().getAttributes().
+                    get(IForwardingService.class.getCanonicalName());
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        PacketInLanes lanes = forwarding.getPacketInLanes();
+        if (lanes == null) {
+            result.put("lanes", 0);
+            return result;
+        }
+        result.put("lanes", lanes.getLaneCount());
+        result.put("queue-depths", lanes.getQueueDepths());
+        result.put("dispatched", lanes.getDispatchedCounts());
+        result.put("rejected", lanes.getRejectedCount());
+        return result;
+    }
+}
@@ -0,0 +1,39 @@
+package net.floodlightcontroller.forwarding.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.forwarding.IForwardingService;
+import net.floodlightcontroller.forwarding.ProactiveRouteInstaller;
+import net.floodlightcontroller.forwarding.RateLimitedFlowModPusher;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Returns the state of proactive host pair route installation.
+ */
+public class ProactiveRoutesResource extends ServerResource {
+    @Get("json")
+    public Map<String, Object> retrieve() {
+        IForwardingService forwarding =
+                (IForwardingService)getContext().getAttributes().
+                    get(IForwardingService.class.getCanonicalName());
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        ProactiveRouteInstaller installer =
+                forwarding.getProactiveRouteInstaller();
+        result.put("enabled", installer != null);
+        if (installer == null) return result;
+
+        result.put("recomputations", installer.getRecomputations());
+        result.put("hosts", installer.getHostCount());
+        result.put("rules", installer.getRuleCount());
+        result.put("last-recompute-ms", installer.getLastRecomputeMs());
+        RateLimitedFlowModPusher pusher = installer.getPusher();
+        result.put("flow-mods-queued", pusher.getQueuedCount());
+        result.put("flow-mods-pushed", pusher.getPushedCount());
+        result.put("flow-mods-dropped", pusher.getDroppedCount());
+        return result;
+    }
+}
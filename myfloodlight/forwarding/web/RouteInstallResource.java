@@ -0,0 +1,39 @@
+package net.floodlightcontroller.forwarding.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.forwarding.IForwardingService;
+import net.floodlightcontroller.forwarding.InFlightFlowTable;
+import net.floodlightcontroller.forwarding.RouteInstallTracker;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Returns the route install latency and in-flight flow counters.
+ */
+public class RouteInstallResource extends ServerResource {
+    @Get("json")
+    public Map<String, Object> retrieve() {
+        IForwardingService forwarding = 
+                (IForwardingService)getContext().getAttributes().
+                    get(IForwardingService.class.getCanonicalName());
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        RouteInstallTracker tracker = forwarding.getRouteInstallTracker();
+        result.put("installs", tracker.getInstalls());
+        result.put("timeouts", tracker.getTimeouts());
+        result.put("aborts", tracker.getAborts());
+        result.put("pending", tracker.getPending());
+        result.put("average-latency-us", tracker.getAverageLatencyUs());
+        result.put("max-latency-us", tracker.getMaxLatencyUs());
+        result.put("last-latency-us", tracker.getLastLatencyUs());
+
+        InFlightFlowTable inFlight = forwarding.getInFlightFlowTable();
+        result.put("coalesced-packet-ins", inFlight.getCoalescedCount());
+        result.put("in-flight-confirmed", inFlight.getConfirmedCount());
+        result.put("in-flight-timed-out", inFlight.getExpiredByTimeoutCount());
+        return result;
+    }
+}
@@ -0,0 +1,235 @@
+package net.floodlightcontroller.topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.topology.FatTreeLayout.Tier;
+
+/**
+ * The candidate paths between every pair of edge (ToR) switches of a
+ * fat-tree: the 2-hop paths through an aggregation switch of the pod when
+ * both are in the same pod, and the 4-hop paths through an aggregation
+ * switch of each pod and a core switch otherwise.
+ *
+ * The index is built once per topology instance and is read-only.  The
+ * edge switches are numbered in DPID order, and the paths of every pair are
+ * stored back to back in one array of links, so looking up the paths of a
+ * pair costs a binary search per switch and, through
+ * {@link #getPathLength} and {@link #getHop}, no allocation.  The paths
+ * of a pair are ordered by the ports of their links.
+ */
+public class CandidatePathIndex {
+    /** The edge switches, sorted */
+    protected final long[] tors;
+    /** Paths of pair p are pairStart[p] to pairStart[p + 1] - 1 */
+    protected final int[] pairStart;
+    /** Links of path p are hops[pathStart[p]] to hops[pathStart[p + 1] - 1] */
+    protected final int[] pathStart;
+    protected final int[] pathCost;
+    protected final Link[] hops;
+
+    protected static final Comparator<Link> srcPortComparator =
+            new Comparator<Link>() {
+        @Override
+        public int compare(Link l1, Link l2) {
+            return l1.getSrcPort() - l2.getSrcPort();
+        }
+    };
+
+    /**
+     * Builds the candidate paths over the given links.
+     * @param layout The tier and pod of the switches
+     * @param links The usable links
+     * @param linkCost The cost of the links; links that are not in the map
+     *                 cost 1
+     */
+    public CandidatePathIndex(FatTreeLayout layout, Set<Link> links,
+                              Map<Link, Integer> linkCost) {
+        // the links from every switch of the layout, by port
+        Map<Long, List<Link>> out = new HashMap<Long, List<Link>>();
+        List<Long> edges = new ArrayList<Long>();
+        for (Link link : links) {
+            if (layout.getTier(link.getSrc()) == null ||
+                layout.getTier(link.getDst()) == null) continue;
+            List<Link> l = out.get(link.getSrc());
+            if (l == null) {
+                l = new ArrayList<Link>();
+                out.put(link.getSrc(), l);
+                if (layout.getTier(link.getSrc()) == Tier.EDGE)
+                    edges.add(link.getSrc());
+            }
+            l.add(link);
+        }
+        for (List<Link> l : out.values()) {
+            Collections.sort(l, srcPortComparator);
+        }
+
+        int n = edges.size();
+        tors = new long[n];
+        for (int i = 0; i < n; i++) {
+            tors[i] = edges.get(i);
+        }
+        Arrays.sort(tors);
+
+        pairStart = new int[n * n + 1];
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> costs = new ArrayList<Integer>();
+        List<Link> allHops = new ArrayList<Link>();
+        Link[] path = new Link[4];
+        for (int s = 0; s < n; s++) {
+            for (int d = 0; d < n; d++) {
+                pairStart[s * n + d] = starts.size();
+                if (s == d) continue;
+                long src = tors[s];
+                long dst = tors[d];
+                int dstPod = layout.getPod(dst);
+                boolean samePod = layout.getPod(src) == dstPod;
+
+                for (Link up : getLinks(out, src)) {
+                    if (layout.getTier(up.getDst()) != Tier.AGGREGATION)
+                        continue;
+                    path[0] = up;
+                    if (samePod) {
+                        for (Link down : getLinks(out, up.getDst())) {
+                            if (down.getDst() != dst) continue;
+                            path[1] = down;
+                            addPath(path, 2, linkCost, starts, costs, allHops);
+                        }
+                        continue;
+                    }
+                    for (Link toCore : getLinks(out, up.getDst())) {
+                        if (layout.getTier(toCore.getDst()) != Tier.CORE)
+                            continue;
+                        path[1] = toCore;
+                        for (Link fromCore : getLinks(out, toCore.getDst())) {
+                            if (layout.getTier(fromCore.getDst()) !=
+                                    Tier.AGGREGATION ||
+                                layout.getPod(fromCore.getDst()) != dstPod)
+                                continue;
+                            path[2] = fromCore;
+                            for (Link down : getLinks(out, fromCore.getDst())) {
+                                if (down.getDst() != dst) continue;
+                                path[3] = down;
+                                addPath(path, 4, linkCost,
+                                        starts, costs, allHops);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        pairStart[n * n] = starts.size();
+
+        pathStart = new int[starts.size() + 1];
+        pathCost = new int[starts.size()];
+        for (int p = 0; p < starts.size(); p++) {
+            pathStart[p] = starts.get(p);
+            pathCost[p] = costs.get(p);
+        }
+        pathStart[starts.size()] = allHops.size();
+        hops = allHops.toArray(new Link[allHops.size()]);
+    }
+
+    private static List<Link> getLinks(Map<Long, List<Link>> out, long sw) {
+        List<Link> l = out.get(sw);
+        return (l == null) ? Collections.<Link>emptyList() : l;
+    }
+
+    private static void addPath(Link[] path, int length,
+                                Map<Link, Integer> linkCost,
+                                List<Integer> starts, List<Integer> costs,
+                                List<Link> allHops) {
+        starts.add(allHops.size());
+        int cost = 0;
+        for (int i = 0; i < length; i++) {
+            allHops.add(path[i]);
+            cost += TopologyInstance.getWeight(linkCost, path[i]);
+        }
+        costs.add(cost);
+    }
+
+    /**
+     * Returns the index of a pair of edge switches, or -1 if either switch
+     * is not an edge switch with links.
+     */
+    protected int pair(long srcTor, long dstTor) {
+        int s = Arrays.binarySearch(tors, srcTor);
+        int d = Arrays.binarySearch(tors, dstTor);
+        if (s < 0 || d < 0) return -1;
+        return s * tors.length + d;
+    }
+
+    /**
+     * Returns the number of candidate paths between two edge switches.
+     */
+    public int getPathCount(long srcTor, long dstTor) {
+        int pair = pair(srcTor, dstTor);
+        if (pair < 0) return 0;
+        return pairStart[pair + 1] - pairStart[pair];
+    }
+
+    /**
+     * Returns the number of links of a candidate path between two edge
+     * switches.
+     * @param i The index of the path, below getPathCount(srcTor, dstTor)
+     */
+    public int getPathLength(long srcTor, long dstTor, int i) {
+        int p = pairStart[pair(srcTor, dstTor)] + i;
+        return pathStart[p + 1] - pathStart[p];
+    }
+
+    /**
+     * Returns a link of a candidate path between two edge switches.
+     * @param i The index of the path, below getPathCount(srcTor, dstTor)
+     * @param j The index of the link, below getPathLength(srcTor, dstTor, i)
+     */
+    public Link getHop(long srcTor, long dstTor, int i, int j) {
+        return hops[pathStart[pairStart[pair(srcTor, dstTor)] + i] + j];
+    }
+
+    /**
+     * Returns the links of a candidate path between two edge switches, as
+     * a new read-only view; {@link #getHop} does not allocate.
+     * @param i The index of the path, below getPathCount(srcTor, dstTor)
+     */
+    public List<Link> getPath(long srcTor, long dstTor, int i) {
+        int p = pairStart[pair(srcTor, dstTor)] + i;
+        return Collections.unmodifiableList(
+                Arrays.asList(hops).subList(pathStart[p], pathStart[p + 1]));
+    }
+
+    /**
+     * Returns the sum of the costs of the links of a candidate path.
+     * @param i The index of the path, below getPathCount(srcTor, dstTor)
+     */
+    public int getPathCost(long srcTor, long dstTor, int i) {
+        return pathCost[pairStart[pair(srcTor, dstTor)] + i];
+    }
+
+    /**
+     * Returns the index of the cheapest candidate path between two edge
+     * switches, the first one if several cost the same, or -1 if there is
+     * no path.
+     */
+    public int getCheapestPath(long srcTor, long dstTor) {
+        int pair = pair(srcTor, dstTor);
+        if (pair < 0) return -1;
+        int best = -1;
+        for (int p = pairStart[pair]; p < pairStart[pair + 1]; p++) {
+            if (best < 0 || pathCost[p] < pathCost[best]) best = p;
+        }
+        return (best < 0) ? -1 : best - pairStart[pair];
+    }
+
+    /** Returns the number of paths in the index */
+    public int size() {
+        return pathCost.length;
+    }
+}
@@ -0,0 +1,297 @@
+package net.floodlightcontroller.topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.Link;
+
+/**
+ * A read-only copy of the links of a cluster laid out for shortest path
+ * computations.  The switches are numbered densely in DPID order, and the
+ * links are kept in compressed sparse row arrays both by destination (to
+ * grow destination-rooted trees) and by source (to find the equal-cost
+ * next hops), together with their weights.  A shortest path computation
+ * only touches int arrays and allocates nothing per link.
+ */
+public class ClusterGraph {
+    protected final long[] dpids;
+
+    // links towards switch v are inX[inStart[v]] to inX[inStart[v+1] - 1],
+    // ordered by source switch and port
+    protected final int[] inStart;
+    protected final int[] inSrc;
+    protected final int[] inWeight;
+    protected final Link[] inLinks;
+
+    // links from switch u are outX[outStart[u]] to outX[outStart[u+1] - 1],
+    // ordered by port
+    protected final int[] outStart;
+    protected final int[] outDst;
+    protected final int[] outWeight;
+    protected final Link[] outLinks;
+
+    /**
+     * The arrays of one shortest path computation.  A workspace can be
+     * reused for any number of computations on graphs of up to its size,
+     * but not by two threads at the same time.
+     */
+    public static class Workspace {
+        int[] dist;
+        /** Index of the incoming link of the next hop, or -1 */
+        int[] next;
+        int[] heap;
+        /** Position of a switch in the heap, or -1 */
+        int[] heapPos;
+        int heapSize;
+
+        public Workspace(int size) {
+            dist = new int[size];
+            next = new int[size];
+            heap = new int[size];
+            heapPos = new int[size];
+        }
+
+        void ensureCapacity(int size) {
+            if (dist.length >= size) return;
+            dist = new int[size];
+            next = new int[size];
+            heap = new int[size];
+            heapPos = new int[size];
+        }
+
+        public int getDist(int node) {
+            return dist[node];
+        }
+
+        boolean less(int a, int b) {
+            return dist[a] < dist[b] || (dist[a] == dist[b] && a < b);
+        }
+
+        /** Inserts a switch, or moves it up after its distance decreased */
+        void push(int node) {
+            int i = heapPos[node];
+            if (i < 0) {
+                i = heapSize++;
+                heap[i] = node;
+                heapPos[node] = i;
+            }
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(node, heap[parent])) break;
+                heap[i] = heap[parent];
+                heapPos[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = node;
+            heapPos[node] = i;
+        }
+
+        int pop() {
+            int top = heap[0];
+            heapPos[top] = -1;
+            int node = heap[--heapSize];
+            if (heapSize == 0) return top;
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && less(heap[child + 1], heap[child]))
+                    child++;
+                if (!less(heap[child], node)) break;
+                heap[i] = heap[child];
+                heapPos[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = node;
+            heapPos[node] = i;
+            return top;
+        }
+    }
+
+    /**
+     * Compiles the links of a cluster.
+     * @param linkCost The weight of the links; links that are not in the
+     *                 map weigh 1
+     */
+    public ClusterGraph(Cluster c, Map<Link, Integer> linkCost) {
+        int n = c.links.size();
+        dpids = new long[n];
+        int k = 0;
+        for (Long node : c.links.keySet()) {
+            dpids[k++] = node;
+        }
+        Arrays.sort(dpids);
+
+        // every link is in the set of both of its switches; take it from
+        // the set of its source
+        List<Link> links = new ArrayList<Link>();
+        for (Map.Entry<Long, Set<Link>> e : c.links.entrySet()) {
+            for (Link link : e.getValue()) {
+                if (link.getSrc() == e.getKey().longValue() &&
+                    indexOf(link.getDst()) >= 0) {
+                    links.add(link);
+                }
+            }
+        }
+        Collections.sort(links, new Comparator<Link>() {
+            @Override
+            public int compare(Link l1, Link l2) {
+                if (l1.getSrc() != l2.getSrc())
+                    return (l1.getSrc() < l2.getSrc()) ? -1 : 1;
+                if (l1.getSrcPort() != l2.getSrcPort())
+                    return l1.getSrcPort() - l2.getSrcPort();
+                if (l1.getDst() != l2.getDst())
+                    return (l1.getDst() < l2.getDst()) ? -1 : 1;
+                return l1.getDstPort() - l2.getDstPort();
+            }
+        });
+
+        int m = links.size();
+        inStart = new int[n + 1];
+        inSrc = new int[m];
+        inWeight = new int[m];
+        inLinks = new Link[m];
+        outStart = new int[n + 1];
+        outDst = new int[m];
+        outWeight = new int[m];
+        outLinks = new Link[m];
+
+        for (Link link : links) {
+            inStart[indexOf(link.getDst()) + 1]++;
+            outStart[indexOf(link.getSrc()) + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            inStart[i + 1] += inStart[i];
+            outStart[i + 1] += outStart[i];
+        }
+        int[] inFill = Arrays.copyOf(inStart, n);
+        int[] outFill = Arrays.copyOf(outStart, n);
+        for (Link link : links) {
+            int src = indexOf(link.getSrc());
+            int dst = indexOf(link.getDst());
+            int w = TopologyInstance.getWeight(linkCost, link);
+            int e = inFill[dst]++;
+            inSrc[e] = src;
+            inWeight[e] = w;
+            inLinks[e] = link;
+            e = outFill[src]++;
+            outDst[e] = dst;
+            outWeight[e] = w;
+            outLinks[e] = link;
+        }
+    }
+
+    public int size() {
+        return dpids.length;
+    }
+
+    /**
+     * Returns the index of a switch, or -1 if it is not in the cluster.
+     */
+    public int indexOf(long dpid) {
+        int i = Arrays.binarySearch(dpids, dpid);
+        return (i < 0) ? -1 : i;
+    }
+
+    public long getDpid(int index) {
+        return dpids[index];
+    }
+
+    /**
+     * Returns the index of a link among the links from a switch, or -1 if
+     * it is not one of them.
+     */
+    public int findOutLink(int src, Link link) {
+        for (int e = outStart[src]; e < outStart[src + 1]; e++) {
+            if (outLinks[e].equals(link)) return e;
+        }
+        return -1;
+    }
+
+    public Link getOutLink(int e) {
+        return outLinks[e];
+    }
+
+    /** Returns the index of the destination switch of a link */
+    public int getOutDst(int e) {
+        return outDst[e];
+    }
+
+    /**
+     * Computes the distance of every switch to a root switch, and its next
+     * hop towards it, into a workspace.
+     */
+    public void shortestPaths(int root, Workspace ws) {
+        int n = dpids.length;
+        ws.ensureCapacity(n);
+        int[] dist = ws.dist;
+        int[] next = ws.next;
+        for (int i = 0; i < n; i++) {
+            dist[i] = TopologyInstance.MAX_PATH_WEIGHT;
+            next[i] = -1;
+            ws.heapPos[i] = -1;
+        }
+        ws.heapSize = 0;
+        dist[root] = 0;
+        ws.push(root);
+        while (ws.heapSize > 0) {
+            int v = ws.pop();
+            int dv = dist[v];
+            for (int e = inStart[v]; e < inStart[v + 1]; e++) {
+                int u = inSrc[e];
+                int du = dv + inWeight[e];
+                if (du < dist[u]) {
+                    dist[u] = du;
+                    next[u] = e;
+                    ws.push(u);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the destination-rooted tree of the last computation of a
+     * workspace.
+     */
+    public BroadcastTree getTree(Workspace ws) {
+        int n = dpids.length;
+        HashMap<Long, Link> nexthoplinks = new HashMap<Long, Link>(n * 2);
+        HashMap<Long, Integer> cost = new HashMap<Long, Integer>(n * 2);
+        for (int i = 0; i < n; i++) {
+            nexthoplinks.put(dpids[i],
+                             (ws.next[i] < 0) ? null : inLinks[ws.next[i]]);
+            cost.put(dpids[i], ws.dist[i]);
+        }
+        return new BroadcastTree(nexthoplinks, cost);
+    }
+
+    /**
+     * Returns, for every switch of the last computation of a workspace,
+     * the links that start a shortest path towards the root, ordered by
+     * port.
+     */
+    public Map<Long, List<Link>> getEqualCostNextHops(Workspace ws) {
+        int n = dpids.length;
+        int[] dist = ws.dist;
+        Map<Long, List<Link>> nexthops = new HashMap<Long, List<Link>>(n * 2);
+        for (int u = 0; u < n; u++) {
+            if (dist[u] <= 0 || dist[u] >= TopologyInstance.MAX_PATH_WEIGHT)
+                continue;
+            List<Link> l = new ArrayList<Link>(2);
+            for (int e = outStart[u]; e < outStart[u + 1]; e++) {
+                int v = outDst[e];
+                if (dist[v] >= TopologyInstance.MAX_PATH_WEIGHT) continue;
+                if (dist[v] + outWeight[e] == dist[u]) l.add(outLinks[e]);
+            }
+            nexthops.put(dpids[u], l);
+        }
+        return nexthops;
+    }
+}
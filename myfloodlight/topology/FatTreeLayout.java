@@ -0,0 +1,82 @@
+package net.floodlightcontroller.topology;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.fiu.openflowresearch.FIUPortStatistics;
+
+/**
+ * The pod and tier of every switch of a fat-tree, and its position among
+ * the switches of the same tier in its pod.  Core switches are in pod 0.
+ */
+public class FatTreeLayout {
+    public enum Tier {
+        EDGE, AGGREGATION, CORE
+    }
+
+    protected Map<Long, Tier> tiers = new HashMap<Long, Tier>();
+    protected Map<Long, Integer> pods = new HashMap<Long, Integer>();
+    protected Map<Long, Integer> positions = new HashMap<Long, Integer>();
+
+    /**
+     * Adds a switch to the layout.  Switches of the same tier and pod get
+     * consecutive positions in the order they are added.
+     */
+    public void addSwitch(long dpid, Tier tier, int pod) {
+        int position = 0;
+        for (Map.Entry<Long, Tier> e : tiers.entrySet()) {
+            if (e.getValue() == tier && pods.get(e.getKey()) == pod)
+                position++;
+        }
+        tiers.put(dpid, tier);
+        pods.put(dpid, pod);
+        positions.put(dpid, position);
+    }
+
+    /** Returns the tier of a switch, or null if it is not in the layout */
+    public Tier getTier(long dpid) {
+        return tiers.get(dpid);
+    }
+
+    /** Returns the pod of a switch, or -1 if it is not in the layout */
+    public int getPod(long dpid) {
+        Integer pod = pods.get(dpid);
+        return (pod == null) ? -1 : pod;
+    }
+
+    /** Returns the position of a switch within its tier and pod */
+    public int getPosition(long dpid) {
+        Integer position = positions.get(dpid);
+        return (position == null) ? 0 : position;
+    }
+
+    public int size() {
+        return tiers.size();
+    }
+
+    /**
+     * Builds the layout of the FIU testbed from the pod assignment of
+     * {@link FIUPortStatistics}.
+     */
+    public static FatTreeLayout fromPortStatistics(FIUPortStatistics portStats) {
+        portStats.assignSwitchesToPods();
+
+        FatTreeLayout layout = new FatTreeLayout();
+        for (Long dpid : portStats.core) {
+            layout.addSwitch(dpid, Tier.CORE, 0);
+        }
+        for (Map.Entry<Integer, List<Long>> e : portStats.swPodMap.entrySet()) {
+            int pod = e.getKey();
+            if (pod == 0) continue;
+            for (Long dpid : e.getValue()) {
+                if (portStats.tors.contains(dpid)) {
+                    layout.addSwitch(dpid, Tier.EDGE, pod);
+                } else if (portStats.aggs.contains(dpid)) {
+                    layout.addSwitch(dpid, Tier.AGGREGATION, pod);
+                }
+            }
+        }
+        return layout;
+    }
+}
@@ -2,10 +2,13 @@ package net.floodlightcontroller.topology;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.Link;
 
 public interface ITopologyService extends IFloodlightService  {
 
@@ -191,6 +194,60 @@ public interface ITopologyService extends IFloodlightService  {
      */
     public List<LDUpdate> getLastLinkUpdates();
 
+    /**
+     * Returns the shortest path tree rooted at a switch, which holds for
+     * every other switch in its cluster the link towards the root.
+     * @param dstId The DPID of the root switch
+     * @return The tree, or null if the switch has no links
+     */
+    public BroadcastTree getDestinationRootedTree(long dstId);
+    public BroadcastTree getDestinationRootedTree(long dstId,
+                                                  boolean tunnelEnabled);
+
+    /**
+     * Returns the cost of every link used by the current topology
+     * instance to compute shortest paths.  Links that are not in the map
+     * have a cost of 1.
+     * @return The link costs, empty when routing by hop count
+     */
+    public Map<Link, Integer> getLinkCosts();
+
+    /**
+     * Returns the hit, miss and eviction counters of the route caches,
+     * accumulated over all topology instances, by cache name.
+     */
+    public Map<String, RouteCache.Counters> getRouteCacheCounters();
+
+    /**
+     * Returns the number of link discovery updates coalesced by every
+     * topology recompute, and how long they were queued.
+     */
+    public UpdateCounters getUpdateCounters();
+
+    /**
+     * Returns the candidate paths between the edge switches of the
+     * fat-tree, indexed by pair of edge switches.
+     * @return The index of the current topology instance, or null if
+     *         there is no fat-tree layout
+     */
+    public CandidatePathIndex getCandidatePaths();
+
+    /**
+     * Returns the next hop and distance between every pair of switches of
+     * the cluster of a switch, for proactive rule installation.
+     * @return The matrix of the current topology instance, or null if the
+     *         switch is not in a cluster or its cluster is larger than the
+     *         configured path matrix size
+     */
+    public PathMatrix getPathMatrix(long switchId);
+
+    /**
+     * Returns the smoothed transmit utilization of a switch port, between
+     * 0 and 1, as used to compute the congestion-aware link costs.
+     * @return The utilization, or 0 when routing by hop count
+     */
+    public double getPortUtilization(long sw, short port);
+
     /**
      * Switch methods
      */
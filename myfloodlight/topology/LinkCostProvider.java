@@ -0,0 +1,262 @@
+package net.floodlightcontroller.topology;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.util.SingletonTask;
+import net.floodlightcontroller.routing.Link;
+
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns the transmit byte counters of the switch ports into link costs.
+ *
+ * The port statistics of every switch are polled periodically.  The
+ * utilization of a port is the exponentially weighted moving average of
+ * its transmit rate over the link capacity, and is quantized into
+ * congestion levels, from 0 to {@link #LEVELS} - 1.  The cost of a link
+ * is {@link #BASE_LINK_COST} plus the congestion level of its source
+ * port, so an idle network is still routed by hop count and a hot link is
+ * only avoided in favor of a path of the same length.  A port only
+ * changes level once its utilization has moved past the level boundary by
+ * the hysteresis margin, so that routes do not flap between two paths of
+ * nearly the same load.
+ *
+ * The poll never waits for the switches: the replies to the requests of
+ * one poll are collected by the next, and a switch that has not answered
+ * by then is skipped for that round.
+ */
+@LogMessageCategory("Network Topology")
+public class LinkCostProvider {
+    protected static Logger log = LoggerFactory.getLogger(LinkCostProvider.class);
+
+    /** Cost of an idle link */
+    public static final int BASE_LINK_COST = 10;
+    /**
+     * Number of congestion levels; a saturated link costs the base plus
+     * LEVELS - 1
+     */
+    public static final int LEVELS = 10;
+
+    public static final int DEFAULT_POLL_INTERVAL_MS = 5000;
+    public static final long DEFAULT_CAPACITY_MBPS = 1000;
+    public static final double DEFAULT_ALPHA = 0.3;
+    public static final double DEFAULT_HYSTERESIS = 0.05;
+
+    /**
+     * The load state of a switch port.
+     */
+    protected static class PortLoad {
+        long lastTxBytes = -1;
+        long lastNanos;
+        double utilization;
+        volatile int level;
+    }
+
+    protected IFloodlightProviderService floodlightProvider;
+    protected ConcurrentMap<NodePortTuple, PortLoad> ports;
+    protected Runnable onChange;
+    protected SingletonTask pollTask;
+    /** Requests of the last poll; only used by pollTask */
+    protected Map<Long, Future<List<OFStatistics>>> pending;
+
+    protected int pollIntervalMs;
+    protected double capacityBytesPerSec;
+    protected double alpha;
+    protected double hysteresis;
+
+    /**
+     * @param onChange Run after a poll that changed the level of a port
+     */
+    public LinkCostProvider(IFloodlightProviderService floodlightProvider,
+                            ScheduledExecutorService ses, Runnable onChange,
+                            int pollIntervalMs, long capacityMbps,
+                            double alpha, double hysteresis) {
+        this.floodlightProvider = floodlightProvider;
+        this.ports = new ConcurrentHashMap<NodePortTuple, PortLoad>();
+        this.onChange = onChange;
+        this.pollIntervalMs = pollIntervalMs;
+        this.capacityBytesPerSec = capacityMbps * 1000000.0 / 8;
+        this.alpha = alpha;
+        this.hysteresis = hysteresis;
+        this.pollTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (Exception e) {
+                    log.error("Exception in port statistics poll", e);
+                } finally {
+                    pollTask.reschedule(LinkCostProvider.this.pollIntervalMs,
+                                        TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    public void start() {
+        pollTask.reschedule(pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the cost of a link from the congestion level of its source
+     * port.
+     */
+    public int getLinkCost(Link link) {
+        PortLoad load = ports.get(new NodePortTuple(link.getSrc(),
+                                                    link.getSrcPort()));
+        return BASE_LINK_COST + ((load == null) ? 0 : load.level);
+    }
+
+    /**
+     * Returns the smoothed utilization of a switch port, between 0 and 1,
+     * or 0 if the port has not been polled yet.
+     */
+    public double getUtilization(long sw, short port) {
+        PortLoad load = ports.get(new NodePortTuple(sw, port));
+        if (load == null) return 0;
+        synchronized (load) {
+            return load.utilization;
+        }
+    }
+
+    @LogMessageDoc(level="ERROR",
+                   message="Exception in port statistics poll",
+                   explanation="An unknown error occured while polling " +
+                           "the port statistics used for link costs",
+                   recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    protected void poll() {
+        boolean changed = (pending != null) && collect(pending);
+        pending = request();
+        if (changed && onChange != null) onChange.run();
+    }
+
+    /**
+     * Sends a port statistics request to every switch.
+     */
+    protected Map<Long, Future<List<OFStatistics>>> request() {
+        Map<Long, Future<List<OFStatistics>>> futures =
+                new HashMap<Long, Future<List<OFStatistics>>>();
+        for (IOFSwitch sw : floodlightProvider.getSwitches().values()) {
+            OFStatisticsRequest req = new OFStatisticsRequest();
+            req.setStatisticType(OFStatisticsType.PORT);
+            OFPortStatisticsRequest specificReq = new OFPortStatisticsRequest();
+            specificReq.setPortNumber(OFPort.OFPP_NONE.getValue());
+            req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+            req.setLengthU(req.getLengthU() + specificReq.getLength());
+            try {
+                futures.put(sw.getId(), sw.getStatistics(req));
+            } catch (Exception e) {
+                log.debug("Failure requesting port statistics from switch {}",
+                          sw.getStringId());
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Folds the replies that have arrived into the port loads.  The poll
+     * runs on the shared scheduler, so it does not wait for the others.
+     * @return true if the congestion level of a port changed
+     */
+    protected boolean collect(Map<Long, Future<List<OFStatistics>>> futures) {
+        boolean changed = false;
+        Set<NodePortTuple> seen = new HashSet<NodePortTuple>();
+        Set<Long> unanswered = new HashSet<Long>();
+        for (Map.Entry<Long, Future<List<OFStatistics>>> e : futures.entrySet()) {
+            Future<List<OFStatistics>> future = e.getValue();
+            List<OFStatistics> values = null;
+            if (future.isDone()) {
+                try {
+                    values = future.get();
+                } catch (Exception ex) {
+                    // the request failed
+                }
+            } else {
+                future.cancel(false);
+            }
+            if (values == null) {
+                log.debug("No port statistics from switch {}", e.getKey());
+                unanswered.add(e.getKey());
+                continue;
+            }
+            long now = System.nanoTime();
+            for (OFStatistics stat : values) {
+                OFPortStatisticsReply reply = (OFPortStatisticsReply) stat;
+                NodePortTuple npt =
+                        new NodePortTuple(e.getKey(), reply.getPortNumber());
+                seen.add(npt);
+                changed |= update(npt, reply.getTransmitBytes(), now);
+            }
+        }
+        // forget ports that no longer exist; the ports of a switch that
+        // did not answer keep their level until the next poll
+        Iterator<NodePortTuple> it = ports.keySet().iterator();
+        while (it.hasNext()) {
+            NodePortTuple npt = it.next();
+            if (seen.contains(npt) || unanswered.contains(npt.getNodeId()))
+                continue;
+            it.remove();
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Folds a counter sample into the utilization of a port.
+     * @return true if the congestion level of the port changed
+     */
+    protected boolean update(NodePortTuple npt, long txBytes, long now) {
+        PortLoad load = ports.get(npt);
+        if (load == null) {
+            load = new PortLoad();
+            PortLoad old = ports.putIfAbsent(npt, load);
+            if (old != null) load = old;
+        }
+        synchronized (load) {
+            long lastTxBytes = load.lastTxBytes;
+            long elapsed = now - load.lastNanos;
+            load.lastTxBytes = txBytes;
+            load.lastNanos = now;
+            // first sample, or the counter was reset
+            if (lastTxBytes < 0 || txBytes < lastTxBytes || elapsed <= 0)
+                return false;
+
+            double rate = (txBytes - lastTxBytes) * 1e9 / elapsed;
+            double sample = Math.min(1.0, rate / capacityBytesPerSec);
+            load.utilization = alpha * sample + (1 - alpha) * load.utilization;
+
+            int current = load.level;
+            int target = Math.min(LEVELS - 1, (int)(load.utilization * LEVELS));
+            if (target > current &&
+                load.utilization >= (double)target / LEVELS + hysteresis) {
+                load.level = target;
+            } else if (target < current &&
+                       load.utilization < (double)current / LEVELS - hysteresis) {
+                load.level = target;
+            }
+            return load.level != current;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package net.floodlightcontroller.topology;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Indexes the cached routes by the links they traverse, so that a
+ * topology change only invalidates the routes through the links that
+ * changed.  A link is identified by its source switch port.  The index is
+ * kept up to date by the cache as routes are added, replaced and evicted,
+ * so it holds the keys of the cached routes only.
+ */
+public class LinkRouteIndex {
+    protected ConcurrentMap<NodePortTuple, Set<Long>> routes =
+            new ConcurrentHashMap<NodePortTuple, Set<Long>>();
+
+    /**
+     * Records a cached route.
+     * @param key The key of the route in the cache
+     * @param path The path of the route, as pairs of the output port of a
+     *             switch and the input port of the next switch
+     */
+    public void add(long key, List<NodePortTuple> path) {
+        for (int i = 0; i + 1 < path.size(); i += 2) {
+            NodePortTuple npt = path.get(i);
+            Set<Long> keys = routes.get(npt);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(
+                        new ConcurrentHashMap<Long, Boolean>());
+                Set<Long> old = routes.putIfAbsent(npt, keys);
+                if (old != null) keys = old;
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Forgets a route that was removed from the cache.  The sets of the
+     * links are kept, as there are only as many as there are links.
+     */
+    public void remove(long key, List<NodePortTuple> path) {
+        for (int i = 0; i + 1 < path.size(); i += 2) {
+            Set<Long> keys = routes.get(path.get(i));
+            if (keys != null) keys.remove(key);
+        }
+    }
+
+    /**
+     * Returns true if the route of a key traverses any of the given links.
+     * @param links The source switch ports of the links
+     */
+    public boolean traverses(long key, Collection<NodePortTuple> links) {
+        for (NodePortTuple npt : links) {
+            Set<Long> keys = routes.get(npt);
+            if (keys != null && keys.contains(key)) return true;
+        }
+        return false;
+    }
+}
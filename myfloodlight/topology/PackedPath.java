@@ -0,0 +1,99 @@
+package net.floodlightcontroller.topology;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of switch ports stored as (DPID, port) pairs in one
+ * long array, used as the path of the routes of a topology instance.
+ *
+ * The path between two switches is built once and cached; the path
+ * between two switch ports is a view that adds the source and destination
+ * ports around it without copying the array.  Elements are created when
+ * they are read, so callers that only need the numbers should use
+ * {@link #getNodeId(int)} and {@link #getPortId(int)}.
+ */
+public class PackedPath extends AbstractList<NodePortTuple>
+                        implements RandomAccess {
+    protected static final long[] NO_HOPS = new long[0];
+
+    /** Switch i of the core path is hops[2*i], its port hops[2*i + 1] */
+    protected final long[] hops;
+    protected final boolean endpoints;
+    protected final long srcId;
+    protected final short srcPort;
+    protected final long dstId;
+    protected final short dstPort;
+
+    /**
+     * @param hops The (DPID, port) pairs of the path; the array is not
+     *             copied and must not be changed afterwards
+     */
+    public PackedPath(long[] hops) {
+        this.hops = hops;
+        this.endpoints = false;
+        this.srcId = 0;
+        this.srcPort = 0;
+        this.dstId = 0;
+        this.dstPort = 0;
+    }
+
+    protected PackedPath(long[] hops, long srcId, short srcPort,
+                         long dstId, short dstPort) {
+        this.hops = hops;
+        this.endpoints = true;
+        this.srcId = srcId;
+        this.srcPort = srcPort;
+        this.dstId = dstId;
+        this.dstPort = dstPort;
+    }
+
+    /**
+     * Returns the path between two switch ports made of an empty core
+     * path, for two ports of the same switch.
+     */
+    public static PackedPath between(long srcId, short srcPort,
+                                     long dstId, short dstPort) {
+        return new PackedPath(NO_HOPS, srcId, srcPort, dstId, dstPort);
+    }
+
+    /**
+     * Returns a view of the core of this path with a source port added at
+     * the front and a destination port at the end.
+     */
+    public PackedPath withEndpoints(long srcId, short srcPort,
+                                    long dstId, short dstPort) {
+        return new PackedPath(hops, srcId, srcPort, dstId, dstPort);
+    }
+
+    @Override
+    public int size() {
+        return hops.length / 2 + (endpoints ? 2 : 0);
+    }
+
+    public long getNodeId(int index) {
+        if (endpoints) {
+            if (index == 0) return srcId;
+            if (index == size() - 1) return dstId;
+            index--;
+        }
+        return hops[2 * index];
+    }
+
+    public short getPortId(int index) {
+        if (endpoints) {
+            if (index == 0) return srcPort;
+            if (index == size() - 1) return dstPort;
+            index--;
+        }
+        return (short)hops[2 * index + 1];
+    }
+
+    @Override
+    public NodePortTuple get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index +
+                                                ", Size: " + size());
+        return new NodePortTuple(getNodeId(index), getPortId(index));
+    }
+}
@@ -0,0 +1,114 @@
+package net.floodlightcontroller.topology;
+
+import org.openflow.protocol.OFPort;
+
+import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.Link;
+
+/**
+ * The next hop and the distance between every pair of switches of a
+ * cluster, in dense tables indexed by the switch indices of the cluster
+ * graph.  Finding whether a route exists, its cost or its next hop is an
+ * array lookup, and a route is walked without touching a map.
+ *
+ * The tables take two ints per pair of switches, so they are only built
+ * for clusters up to a configured size.  The matrix is filled once, one
+ * row per destination-rooted tree, and is read-only afterwards.
+ */
+public class PathMatrix {
+    /** Largest cluster for which a matrix is built by default */
+    public static final int DEFAULT_MAX_SIZE = 512;
+
+    protected final ClusterGraph graph;
+    /** next[d][s] is the link from s towards d in the graph, or -1 */
+    protected final int[][] next;
+    protected final int[][] dist;
+
+    public PathMatrix(ClusterGraph graph) {
+        this.graph = graph;
+        int n = graph.size();
+        next = new int[n][n];
+        dist = new int[n][n];
+    }
+
+    /**
+     * Fills the row of a destination from its destination-rooted tree.
+     * Rows of different destinations can be filled concurrently.
+     */
+    public void setRow(int dst, BroadcastTree tree) {
+        int[] nextRow = next[dst];
+        int[] distRow = dist[dst];
+        for (int s = 0; s < nextRow.length; s++) {
+            long dpid = graph.getDpid(s);
+            Link link = tree.getTreeLink(dpid);
+            nextRow[s] = (link == null) ? -1 : graph.findOutLink(s, link);
+            distRow[s] = tree.getCost(dpid);
+        }
+    }
+
+    public ClusterGraph getGraph() {
+        return graph;
+    }
+
+    public int size() {
+        return graph.size();
+    }
+
+    /**
+     * Returns the index of a switch, or -1 if it is not in the cluster.
+     */
+    public int indexOf(long dpid) {
+        return graph.indexOf(dpid);
+    }
+
+    /**
+     * Returns the cost of the shortest path between two switches, as in
+     * their destination-rooted tree.
+     */
+    public int getDistance(int src, int dst) {
+        return dist[dst][src];
+    }
+
+    /**
+     * Returns the index in the graph of the first link of the shortest
+     * path between two switches, or -1 if they are the same switch.
+     */
+    public int getNextHop(int src, int dst) {
+        return next[dst][src];
+    }
+
+    /**
+     * Returns the port of the source switch on the shortest path between
+     * two switches, or OFPP_NONE if there is none.
+     */
+    public short getNextHopPort(int src, int dst) {
+        int e = next[dst][src];
+        if (e < 0) return OFPort.OFPP_NONE.getValue();
+        return graph.getOutLink(e).getSrcPort();
+    }
+
+    /**
+     * Returns the links of the shortest path between two switches as
+     * (DPID, port) pairs, the output and input port of every link in
+     * turn, or null if there is no path.
+     */
+    public long[] getPath(int src, int dst) {
+        int length = 0;
+        int u = src;
+        while (next[dst][u] >= 0) {
+            u = graph.getOutDst(next[dst][u]);
+            length++;
+        }
+        if (length == 0 || u != dst) return null;
+        long[] hops = new long[length * 4];
+        int i = 0;
+        for (u = src; u != dst; u = graph.getOutDst(next[dst][u])) {
+            Link l = graph.getOutLink(next[dst][u]);
+            hops[i++] = l.getSrc();
+            hops[i++] = l.getSrcPort();
+            hops[i++] = l.getDst();
+            hops[i++] = l.getDstPort();
+        }
+        return hops;
+    }
+}
@@ -0,0 +1,337 @@
+package net.floodlightcontroller.topology;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map stored as a hash array mapped trie.  Adding or removing
+ * a key returns a new map that copies only the path from the root to the
+ * key, at most seven small nodes, and shares everything else with the old
+ * map.  The topology manager keeps its link structures in such maps, so a
+ * new topology instance can take them as they are instead of copying them.
+ *
+ * The map is read-only through the Map interface.  Keys and values must
+ * not be null.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+    @SuppressWarnings("rawtypes")
+    private static final PersistentMap EMPTY = new PersistentMap(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    /**
+     * A node of the trie.  Its array holds pairs of a key and its value,
+     * or of null and a child node.
+     */
+    abstract static class Node {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract Object find(int shift, int hash, Object key);
+        abstract Node assoc(int shift, int hash, Object key, Object value,
+                            boolean[] added);
+        /** Returns the node without the key, or null if it is empty */
+        abstract Node without(int shift, int hash, Object key);
+    }
+
+    /**
+     * A node with up to 32 entries, one per value of five bits of the
+     * hash, and a bitmap of the entries present.
+     */
+    static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) return null;
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null)
+                return ((Node)array[i + 1]).find(shift + 5, hash, key);
+            return key.equals(k) ? array[i + 1] : null;
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value,
+                   boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] a = new Object[array.length + 2];
+                System.arraycopy(array, 0, a, 0, i);
+                a[i] = key;
+                a[i + 1] = value;
+                System.arraycopy(array, i, a, i + 2, array.length - i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, a);
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node n = ((Node)v).assoc(shift + 5, hash, key, value, added);
+                if (n == v) return this;
+                return new BitmapNode(bitmap, set(array, i + 1, n));
+            }
+            if (key.equals(k)) {
+                if (value == v) return this;
+                return new BitmapNode(bitmap, set(array, i + 1, value));
+            }
+            added[0] = true;
+            Node n = createNode(shift + 5, k, v, hash, key, value);
+            Object[] a = set(array, i + 1, n);
+            a[i] = null;
+            return new BitmapNode(bitmap, a);
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) return this;
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null) {
+                Node child = (Node)array[i + 1];
+                Node n = child.without(shift + 5, hash, key);
+                if (n == child) return this;
+                if (n != null)
+                    return new BitmapNode(bitmap, set(array, i + 1, n));
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            if (bitmap == bit) return null;
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, i);
+            System.arraycopy(array, i + 2, a, i, a.length - i);
+            return new BitmapNode(bitmap ^ bit, a);
+        }
+    }
+
+    /**
+     * A node of keys that have the same hash.
+     */
+    static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            if (hash != this.hash) return null;
+            int i = indexOf(key);
+            return (i < 0) ? null : array[i + 1];
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value,
+                   boolean[] added) {
+            if (hash != this.hash) {
+                // push this node one level down
+                BitmapNode n = new BitmapNode(
+                        1 << ((this.hash >>> shift) & 31),
+                        new Object[] {null, this});
+                return n.assoc(shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) return this;
+                return new CollisionNode(hash, set(array, i + 1, value));
+            }
+            Object[] a = new Object[array.length + 2];
+            System.arraycopy(array, 0, a, 0, array.length);
+            a[array.length] = key;
+            a[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, a);
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            if (hash != this.hash) return this;
+            int i = indexOf(key);
+            if (i < 0) return this;
+            if (array.length == 2) return null;
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, i);
+            System.arraycopy(array, i + 2, a, i, a.length - i);
+            return new CollisionNode(hash, a);
+        }
+    }
+
+    private static Object[] set(Object[] array, int i, Object value) {
+        Object[] a = array.clone();
+        a[i] = value;
+        return a;
+    }
+
+    private static Node createNode(int shift, Object k1, Object v1,
+                                   int h2, Object k2, Object v2) {
+        int h1 = hash(k1);
+        if (h1 == h2)
+            return new CollisionNode(h1, new Object[] {k1, v1, k2, v2});
+        boolean[] added = new boolean[1];
+        return BitmapNode.EMPTY.assoc(shift, h1, k1, v1, added)
+                               .assoc(shift, h2, k2, v2, added);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        // spread the low bits, which pick the entry in the root node
+        return h ^ (h >>> 16);
+    }
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a map with the given key mapped to the given value, or this
+     * map if the key already maps to that very value.
+     */
+    public PersistentMap<K, V> plus(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node r = (root == null) ? BitmapNode.EMPTY : root;
+        Node n = r.assoc(0, hash(key), key, value, added);
+        if (n == root) return this;
+        return new PersistentMap<K, V>(n, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without the given key, or this map if it does not
+     * have the key.
+     */
+    public PersistentMap<K, V> minus(Object key) {
+        if (root == null) return this;
+        Node n = root.without(0, hash(key), key);
+        if (n == root) return this;
+        if (n == null) return empty();
+        return new PersistentMap<K, V>(n, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (root == null || key == null) return null;
+        return (V)root.find(0, hash(key), key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Walks the trie depth first, with one array and position per level.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        // seven levels of five bits, and the collision nodes below them
+        final Object[][] arrays = new Object[8][];
+        final int[] positions = new int[8];
+        int depth = -1;
+        Map.Entry<K, V> next;
+
+        EntryIterator() {
+            if (root != null) push(root.array);
+            advance();
+        }
+
+        void push(Object[] array) {
+            arrays[++depth] = array;
+            positions[depth] = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                int i = positions[depth];
+                if (i >= array.length) {
+                    arrays[depth--] = null;
+                    continue;
+                }
+                positions[depth] = i + 2;
+                if (array[i] == null) {
+                    push(((Node)array[i + 1]).array);
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<K, V>(
+                            (K)array[i], (V)array[i + 1]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) throw new NoSuchElementException();
+            Map.Entry<K, V> e = next;
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
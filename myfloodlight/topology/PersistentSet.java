@@ -0,0 +1,60 @@
+package net.floodlightcontroller.topology;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+/**
+ * An immutable set backed by a {@link PersistentMap}: adding or removing
+ * an element returns a new set that shares everything else with the old
+ * one.  The set is read-only through the Set interface.  Elements must not
+ * be null.
+ */
+public final class PersistentSet<E> extends AbstractSet<E> {
+    @SuppressWarnings("rawtypes")
+    private static final PersistentSet EMPTY =
+            new PersistentSet(PersistentMap.empty());
+
+    private final PersistentMap<E, Boolean> map;
+
+    private PersistentSet(PersistentMap<E, Boolean> map) {
+        this.map = map;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentSet<E> empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a set with the given element, or this set if it already has
+     * it.
+     */
+    public PersistentSet<E> plus(E e) {
+        PersistentMap<E, Boolean> m = map.plus(e, Boolean.TRUE);
+        return (m == map) ? this : new PersistentSet<E>(m);
+    }
+
+    /**
+     * Returns a set without the given element, or this set if it does not
+     * have it.
+     */
+    public PersistentSet<E> minus(Object e) {
+        PersistentMap<E, Boolean> m = map.minus(e);
+        return (m == map) ? this : new PersistentSet<E>(m);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return map.containsKey(o);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return map.keySet().iterator();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+}
@@ -0,0 +1,381 @@
+package net.floodlightcontroller.topology;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded cache of values keyed by a long, such as a pair of switch
+ * indices packed with {@link #pack(int, int)}.
+ *
+ * The entries are spread over independently locked segments, each an
+ * open-addressing table of primitive keys, so lookups from different
+ * threads rarely contend and allocate nothing.  Eviction follows TinyLFU:
+ * every access is counted in a small count-min sketch, and when a segment
+ * is full a new entry only replaces the least frequently used of a few
+ * sampled entries if it was used more often.  Entries used once, as in a
+ * scan over all pairs, do not push out the pairs that carry the traffic.
+ *
+ * Values must not be null.
+ */
+public class RouteCache<V> {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    protected static final int SEGMENTS = 16;
+    /** Number of entries sampled to pick an eviction victim */
+    protected static final int EVICTION_SAMPLES = 8;
+    protected static final long EMPTY = Long.MIN_VALUE;
+
+    /**
+     * Counters of a cache, which can be shared by the caches of
+     * successive topology instances.
+     */
+    public static class Counters {
+        protected final AtomicLong hits = new AtomicLong();
+        protected final AtomicLong misses = new AtomicLong();
+        protected final AtomicLong evictions = new AtomicLong();
+        protected final AtomicLong rejections = new AtomicLong();
+        protected volatile int capacity;
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /** Entries removed to make room for a more frequent one */
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        /** New entries not admitted because they were less frequent */
+        public long getRejections() {
+            return rejections.get();
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public double getHitRatio() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return (total == 0) ? 0 : (double)h / total;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, four per key, halved once
+     * the number of increments reaches ten times the cache capacity so
+     * that old popularity fades.
+     */
+    protected static class FrequencySketch {
+        protected final AtomicLongArray table;
+        protected final int mask;
+        protected final int resetThreshold;
+        protected final AtomicInteger increments = new AtomicInteger();
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            table = new AtomicLongArray(size);
+            mask = size - 1;
+            resetThreshold = 10 * Math.max(capacity, 16);
+        }
+
+        static int hash(long key, int i) {
+            long h = (key + i) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+            h *= 0xBF58476D1CE4E5B9L;
+            return (int)(h ^ (h >>> 32));
+        }
+
+        int frequency(long key) {
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                int h = hash(key, i);
+                int shift = (h >>> 28) << 2;
+                int count = (int)((table.get(h & mask) >>> shift) & 0xf);
+                if (count < min) min = count;
+            }
+            return min;
+        }
+
+        void increment(long key) {
+            for (int i = 0; i < 4; i++) {
+                int h = hash(key, i);
+                int index = h & mask;
+                int shift = (h >>> 28) << 2;
+                while (true) {
+                    long word = table.get(index);
+                    if (((word >>> shift) & 0xf) == 0xf) break;
+                    if (table.compareAndSet(index, word, word + (1L << shift)))
+                        break;
+                }
+            }
+            if (increments.incrementAndGet() >= resetThreshold) reset();
+        }
+
+        synchronized void reset() {
+            if (increments.get() < resetThreshold) return;
+            for (int i = 0; i < table.length(); i++) {
+                // halve all sixteen counters of the word at once
+                table.set(i, (table.get(i) >>> 1) & 0x7777777777777777L);
+            }
+            increments.set(0);
+        }
+    }
+
+    /**
+     * A linear probing table, kept at most half full.
+     */
+    protected static class Segment {
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+        final int capacity;
+        int size;
+        int sampleStart;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            int tableSize = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) << 1;
+            keys = new long[tableSize];
+            values = new Object[tableSize];
+            mask = tableSize - 1;
+            Arrays.fill(keys, EMPTY);
+        }
+
+        int find(long key, int h) {
+            int i = h & mask;
+            while (keys[i] != EMPTY) {
+                if (keys[i] == key) return i;
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        void removeAt(int i) {
+            // shift back the entries after it so that probing still works
+            int j = i;
+            while (true) {
+                keys[i] = EMPTY;
+                values[i] = null;
+                while (true) {
+                    j = (j + 1) & mask;
+                    if (keys[j] == EMPTY) {
+                        size--;
+                        return;
+                    }
+                    int home = spread(keys[j]) & mask;
+                    if (i <= j ? (i < home && home <= j)
+                               : (i < home || home <= j)) continue;
+                    break;
+                }
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Receives the entries of a cache.
+     */
+    public interface Visitor<V> {
+        public void visit(long key, V value);
+    }
+
+    /**
+     * Is told of the entries added to and removed from a cache, including
+     * replaced and evicted entries.  It is called with the segment of the
+     * entry locked, so it sees the changes of a key in order, and must not
+     * use the cache.
+     */
+    public interface Listener<V> {
+        public void added(long key, V value);
+        public void removed(long key, V value);
+    }
+
+    protected final Segment[] segments;
+    protected final FrequencySketch sketch;
+    protected final Counters counters;
+    protected final Listener<V> listener;
+
+    /**
+     * @param capacity The maximum number of entries
+     * @param counters The counters to update, possibly shared with other
+     *                 caches
+     */
+    public RouteCache(int capacity, Counters counters) {
+        this(capacity, counters, null);
+    }
+
+    /**
+     * @param capacity The maximum number of entries
+     * @param counters The counters to update, possibly shared with other
+     *                 caches
+     * @param listener Told of every entry added and removed, or null
+     */
+    public RouteCache(int capacity, Counters counters, Listener<V> listener) {
+        int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        sketch = new FrequencySketch(capacity);
+        this.counters = counters;
+        this.listener = listener;
+        counters.capacity = capacity;
+    }
+
+    /**
+     * Packs a pair of non-negative indices into a key.
+     */
+    public static long pack(int src, int dst) {
+        return ((long)src << 32) | (dst & 0xffffffffL);
+    }
+
+    static int spread(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    protected Segment segmentFor(int h) {
+        return segments[(h >>> 28) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Returns the value of a key, or null if it is not in the cache.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int h = spread(key);
+        sketch.increment(key);
+        Segment s = segmentFor(h);
+        Object value;
+        synchronized (s) {
+            int i = s.find(key, h);
+            value = (i < 0) ? null : s.values[i];
+        }
+        if (value == null) {
+            counters.misses.incrementAndGet();
+        } else {
+            counters.hits.incrementAndGet();
+        }
+        return (V) value;
+    }
+
+    /**
+     * Adds a value to the cache, unless the cache is full and the key is
+     * used less often than the entry it would replace.
+     */
+    @SuppressWarnings("unchecked")
+    public void put(long key, V value) {
+        int h = spread(key);
+        Segment s = segmentFor(h);
+        synchronized (s) {
+            int i = s.find(key, h);
+            if (i >= 0) {
+                Object old = s.values[i];
+                s.values[i] = value;
+                if (listener != null) {
+                    listener.removed(key, (V) old);
+                    listener.added(key, value);
+                }
+                return;
+            }
+            if (s.size >= s.capacity) {
+                int victim = sampleVictim(s);
+                long victimKey = s.keys[victim];
+                if (sketch.frequency(key) <= sketch.frequency(victimKey)) {
+                    counters.rejections.incrementAndGet();
+                    return;
+                }
+                Object victimValue = s.values[victim];
+                s.removeAt(victim);
+                counters.evictions.incrementAndGet();
+                if (listener != null)
+                    listener.removed(victimKey, (V) victimValue);
+                i = s.find(key, h);
+            }
+            i = -1 - i;
+            s.keys[i] = key;
+            s.values[i] = value;
+            s.size++;
+            if (listener != null) listener.added(key, value);
+        }
+    }
+
+    /**
+     * Returns the least frequently used of the next few entries of a
+     * segment, going round the table from one call to the next.
+     */
+    protected int sampleVictim(Segment s) {
+        int victim = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        int i = s.sampleStart;
+        for (int seen = 0; seen < EVICTION_SAMPLES && seen < s.size; ) {
+            i = (i + 1) & s.mask;
+            if (s.keys[i] == EMPTY) continue;
+            seen++;
+            int f = sketch.frequency(s.keys[i]);
+            if (f < victimFrequency) {
+                victim = i;
+                victimFrequency = f;
+            }
+        }
+        s.sampleStart = i;
+        return victim;
+    }
+
+    /**
+     * Passes every entry of the cache to a visitor.  The visitor is
+     * called with the segment of the entry locked, and must not use the
+     * cache.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<V> visitor) {
+        for (Segment s : segments) {
+            synchronized (s) {
+                for (int i = 0; i < s.keys.length; i++) {
+                    if (s.keys[i] != EMPTY)
+                        visitor.visit(s.keys[i], (V) s.values[i]);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void clear() {
+        for (Segment s : segments) {
+            synchronized (s) {
+                if (listener != null) {
+                    for (int i = 0; i < s.keys.length; i++) {
+                        if (s.keys[i] != EMPTY)
+                            listener.removed(s.keys[i], (V) s.values[i]);
+                    }
+                }
+                Arrays.fill(s.keys, EMPTY);
+                Arrays.fill(s.values, null);
+                s.size = 0;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                size += s.size;
+            }
+        }
+        return size;
+    }
+
+    public Counters getCounters() {
+        return counters;
+    }
+}
@@ -2,7 +2,9 @@ package net.floodlightcontroller.topology;
 
 import java.sql.Time;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -11,7 +13,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 
 import org.openflow.protocol.OFPort;
@@ -23,17 +29,13 @@ import org.openflow.protocol.statistics.OFStatisticsType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.floodlightcontroller.util.ClusterDFS;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
-import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.routing.BroadcastTree;
 import net.floodlightcontroller.routing.Link;
 import net.floodlightcontroller.routing.Route;
 import net.floodlightcontroller.routing.RouteId;
-import net.floodlightcontroller.util.LRUHashMap;
 import edu.fiu.tools.StaticDPIDConverter;
-import edu.fiu.openflowresearch.FIUPortStatistics;
 
 
 
@@ -56,7 +58,6 @@ public class TopologyInstance {
 	
 	//FIU Variables
 	protected StaticDPIDConverter converter = new StaticDPIDConverter(true);
-	protected FIUPortStatistics portStats;
 	protected IFloodlightProviderService floodlightProvider;
 	protected StaticDPIDConverter converterfiu;
 	
@@ -72,7 +73,19 @@ public class TopologyInstance {
 
     public static final int MAX_LINK_WEIGHT = 10000;
     public static final int MAX_PATH_WEIGHT = Integer.MAX_VALUE - MAX_LINK_WEIGHT - 1;
-    public static final int PATH_CACHE_SIZE = 1000;
+    /** Maximum number of equal-cost routes kept between two switches */
+    public static final int MAX_EQUAL_COST_ROUTES = 16;
+    /** Cached in place of a route between switches that have none */
+    protected static final Route NO_ROUTE =
+            new Route(new RouteId(0L, 0L), new ArrayList<NodePortTuple>());
+    /**
+     * Largest number of changed links for which the shortest path trees
+     * of the previous instance are updated instead of recomputed; one
+     * physical link is two links
+     */
+    public static final int MAX_INCREMENTAL_LINK_CHANGES = 2;
+    /** Number of shortest path trees computed by one fork/join task */
+    protected static final int TREES_PER_TASK = 8;
     public static int topologyUpdateCounter = 0;
 
     protected static Logger log = LoggerFactory.getLogger(TopologyInstance.class);
@@ -96,10 +109,48 @@ public class TopologyInstance {
     protected Map<Long, Cluster> switchClusterMap; // switch to OF domain map
 
     // States for routing
-    protected Map<Long, BroadcastTree> destinationRootedTrees;
+    protected ConcurrentMap<Long, BroadcastTree> destinationRootedTrees;
+    /**
+     * For every destination, all the next hop links of every switch that
+     * lie on a shortest path towards it, ordered by source port.
+     */
+    protected ConcurrentMap<Long, Map<Long, List<Link>>> equalCostNextHops;
     protected Map<Long, Set<NodePortTuple>> clusterBroadcastNodePorts;
     protected Map<Long, BroadcastTree> clusterBroadcastTrees;
-    protected LRUHashMap<RouteId, Route> pathcache;
+    /** Routes by pair of switch indices; NO_ROUTE when there is none */
+    protected RouteCache<Route> pathcache;
+    /** Routes by pair of switch ports, sharing the paths of pathcache */
+    protected RouteCache<Route> endpointcache;
+    protected RouteCache<List<Route>> multipathcache;
+    /** Every switch in DPID order; the position is the cache key index */
+    protected long[] indexedSwitches;
+    /** The cached routes by the links they traverse */
+    protected LinkRouteIndex routeIndex;
+    protected LinkRouteIndex equalCostRouteIndex;
+    /**
+     * Costs of the links, set by the topology manager before compute()
+     * when routing by congestion, or null when routing by hop count
+     */
+    protected Map<Link, Integer> linkCosts;
+    /** Weights of the links used to compute the shortest path trees */
+    protected Map<Link, Integer> pathLinkCosts;
+    protected ForkJoinPool forkJoinPool;
+    /**
+     * Compute every destination-rooted tree on first use instead of in
+     * compute()
+     */
+    protected boolean lazyPaths;
+    /** Set once a newer instance is computed, to stop warming the trees */
+    protected volatile boolean retired;
+    /** Compiled links of every cluster, by cluster id */
+    protected Map<Long, ClusterGraph> clusterGraphs;
+    /** Largest cluster for which a path matrix is built, 0 for none */
+    protected int pathMatrixSize = PathMatrix.DEFAULT_MAX_SIZE;
+    /** Path matrix and index in it of every switch, by switch index */
+    protected PathMatrix[] switchMatrices;
+    protected int[] matrixIndices;
+    protected FatTreeLayout fatTreeLayout;
+    protected CandidatePathIndex candidatePaths;
     List<OFPortStatisticsReply> tempStats;
     
 
@@ -135,18 +186,29 @@ public class TopologyInstance {
                             Set<NodePortTuple> broadcastDomainPorts,
                             Set<NodePortTuple> tunnelPorts){
 
-        // copy these structures
-        this.switches = new HashSet<Long>(switchPorts.keySet());
-        this.switchPorts = new HashMap<Long, Set<Short>>();
-        for(long sw: switchPorts.keySet()) {
-            this.switchPorts.put(sw, new HashSet<Short>(switchPorts.get(sw)));
+        // copy these structures, unless they are persistent: then neither
+        // the maps nor their sets can change, and they are shared with the
+        // topology manager and the other instances
+        if (switchPorts instanceof PersistentMap) {
+            this.switches = switchPorts.keySet();
+            this.switchPorts = switchPorts;
+        } else {
+            this.switches = new HashSet<Long>(switchPorts.keySet());
+            this.switchPorts = new HashMap<Long, Set<Short>>();
+            for(long sw: switchPorts.keySet()) {
+                this.switchPorts.put(sw, new HashSet<Short>(switchPorts.get(sw)));
+            }
         }
 
         this.blockedPorts = new HashSet<NodePortTuple>(blockedPorts);
-        this.switchPortLinks = new HashMap<NodePortTuple, Set<Link>>();
-        for(NodePortTuple npt: switchPortLinks.keySet()) {
-            this.switchPortLinks.put(npt, 
-                                     new HashSet<Link>(switchPortLinks.get(npt)));
+        if (switchPortLinks instanceof PersistentMap) {
+            this.switchPortLinks = switchPortLinks;
+        } else {
+            this.switchPortLinks = new HashMap<NodePortTuple, Set<Link>>();
+            for(NodePortTuple npt: switchPortLinks.keySet()) {
+                this.switchPortLinks.put(npt, 
+                                         new HashSet<Link>(switchPortLinks.get(npt)));
+            }
         }
         this.broadcastDomainPorts = new HashSet<NodePortTuple>(broadcastDomainPorts);
         this.tunnelPorts = new HashSet<NodePortTuple>(tunnelPorts);
@@ -154,16 +216,35 @@ public class TopologyInstance {
         blockedLinks = new HashSet<Link>();
         clusters = new HashSet<Cluster>();
         switchClusterMap = new HashMap<Long, Cluster>();
-        destinationRootedTrees = new HashMap<Long, BroadcastTree>();
+        destinationRootedTrees = new ConcurrentHashMap<Long, BroadcastTree>();
+        equalCostNextHops =
+                new ConcurrentHashMap<Long, Map<Long, List<Link>>>();
         clusterBroadcastTrees = new HashMap<Long, BroadcastTree>();
         clusterBroadcastNodePorts = new HashMap<Long, Set<NodePortTuple>>();
-        pathcache = new LRUHashMap<RouteId, Route>(PATH_CACHE_SIZE);
+        setRouteCaches(RouteCache.DEFAULT_CAPACITY, new RouteCache.Counters(),
+                       new RouteCache.Counters(), new RouteCache.Counters());
+        Long[] sorted = this.switches.toArray(new Long[this.switches.size()]);
+        Arrays.sort(sorted);
+        indexedSwitches = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            indexedSwitches[i] = sorted[i];
+        }
+        clusterGraphs = new HashMap<Long, ClusterGraph>();
     }
 
     public void compute() {
-    	
-    	portStats.assignSwitchesToPods();
-    	
+        compute(null);
+    }
+
+    /**
+     * Computes the topology.  When the clusters are the same as in the
+     * previous instance and only a few links were added, removed or
+     * changed cost, the shortest path trees of the previous instance are
+     * updated instead of being recomputed from every switch.
+     * @param previous The previous topology instance, or null to always
+     *                 compute the trees from scratch
+     */
+    public void compute(TopologyInstance previous) {
 
         // Step 1: Compute clusters ignoring broadcast domain links
         // Create nodes for clusters in the higher level topology
@@ -181,7 +262,14 @@ public class TopologyInstance {
         // Step 2. Compute shortest path trees in each cluster for 
         // unicast routing.  The trees are rooted at the destination.
         // Cost for tunnel links and direct links are the same.
-        calculateShortestPathTreeInClusters();
+        if (previous == null ||
+            !updateShortestPathTreesInClusters(previous)) {
+            calculateShortestPathTreeInClusters();
+        }
+
+        // Step 2.1. Tabulate the next hops and distances of the trees
+        // of the small clusters.
+        calculatePathMatrices();
 
         // Step 3. Compute broadcast tree in each cluster.
         // Cost for tunnel links are high to discourage use of 
@@ -190,6 +278,10 @@ public class TopologyInstance {
         // clusters as possible.
         calculateBroadcastNodePortsInClusters();
 
+        // Step 3.1. Index the candidate paths between the edge switches
+        // of the fat-tree.
+        calculateCandidatePaths();
+
         // Step 4. print topology.
         // printTopology();
     }
@@ -249,154 +341,118 @@ public class TopologyInstance {
      *
      * This function divides the network into clusters. Every cluster is
      * a strongly connected component. The network may contain unidirectional
-     * links.  The function calls dfsTraverse for performing depth first
-     * search and cluster formation.
+     * links.
      *
      * The computation of strongly connected components is based on
      * Tarjan's algorithm.  For more details, please see the Wikipedia
      * link below.
      *
      * http://en.wikipedia.org/wiki/Tarjan%27s_strongly_connected_components_algorithm
-     */
-    @LogMessageDoc(level="ERROR",
-            message="No DFS object for switch {} found.",
-            explanation="The internal state of the topology module is corrupt",
-            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
-    public void identifyOpenflowDomains() {
-        Map<Long, ClusterDFS> dfsList = new HashMap<Long, ClusterDFS>();
-
-        if (switches == null) return;
-
-        for (Long key: switches) {
-        	converter.convertDPID(key);
-        	ClusterDFS cdfs = new ClusterDFS();
-            dfsList.put(key, cdfs);
-        }
-        Set<Long> currSet = new HashSet<Long>();
-
-        for (Long sw: switches) {
-            ClusterDFS cdfs = dfsList.get(sw);
-            if (cdfs == null) {
-                log.error("No DFS object for switch {} found.", sw);
-            }else if (!cdfs.isVisited()) {
-            	System.out.println("SWITCH FOR DFSTRAVERSE IS---->"+converter.convertDPID(sw));
-                dfsTraverse(0, 1, sw, dfsList, currSet);
-            }
-        }
-    }
-
-
-    /**
-     * @author Srinivasan Ramasubramanian
-     *
-     * This algorithm computes the depth first search (DFS) traversal of the
-     * switches in the network, computes the lowpoint, and creates clusters
-     * (of strongly connected components).
-     *
-     * The computation of strongly connected components is based on
-     * Tarjan's algorithm.  For more details, please see the Wikipedia
-     * link below.
-     *
-     * http://en.wikipedia.org/wiki/Tarjan%27s_strongly_connected_components_algorithm
-     *
-     * The initialization of lowpoint and the check condition for when a
-     * cluster should be formed is modified as we do not remove switches that
-     * are already part of a cluster.
-     *
-     * A return value of -1 indicates that dfsTraverse failed somewhere in the middle
-     * of computation.  This could happen when a switch is removed during the cluster
-     * computation procedure.
      *
-     * @param parentIndex: DFS index of the parent node
-     * @param currIndex: DFS index to be assigned to a newly visited node
-     * @param currSw: ID of the current switch
-     * @param dfsList: HashMap of DFS data structure for each switch
-     * @param currSet: Set of nodes in the current cluster in formation
-     * @return long: DSF index to be used when a new node is visited
+     * The switches are numbered by their index in indexedSwitches and the
+     * usable links are compiled into arrays first.  The depth first search
+     * keeps its own stack of switches and of the next link to explore from
+     * each, so it does not recurse however deep the topology is.
      */
-
-    private long dfsTraverse (long parentIndex, long currIndex, long currSw,
-                              Map<Long, ClusterDFS> dfsList, Set <Long> currSet) {
-
-        //Get the DFS object corresponding to the current switch
-        ClusterDFS currDFS = dfsList.get(currSw);
-        // Get all the links corresponding to this switch
-
-
-        //Assign the DFS object with right values.
-        currDFS.setVisited(true);
-        currDFS.setDfsIndex(currIndex);
-        currDFS.setParentDFSIndex(parentIndex);
-        currIndex++;
-
-        // Traverse the graph through every outgoing link.
-        if (switchPorts.get(currSw) != null){
-            for(Short p: switchPorts.get(currSw)) {
+    public void identifyOpenflowDomains() {
+        if (switches == null || indexedSwitches == null) return;
+        int n = indexedSwitches.length;
+
+        // links from switch u are to linkDst[linkStart[u]] to
+        // linkDst[linkStart[u+1] - 1]
+        int[] linkStart = new int[n + 1];
+        int[] linkDst = new int[Math.max(16, n * 2)];
+        int m = 0;
+        for (int u = 0; u < n; u++) {
+            linkStart[u] = m;
+            long currSw = indexedSwitches[u];
+            Set<Short> ports = switchPorts.get(currSw);
+            if (ports == null) continue;
+            for (Short p : ports) {
                 Set<Link> lset = switchPortLinks.get(new NodePortTuple(currSw, p));
                 if (lset == null) continue;
-                for(Link l:lset) {
-                    long dstSw = l.getDst();
-
+                for (Link l : lset) {
                     // ignore incoming links.
-                    if (dstSw == currSw) continue;
-
-                    // ignore if the destination is already added to 
-                    // another cluster
-                    if (switchClusterMap.get(dstSw) != null) continue;
-
+                    if (l.getDst() == currSw) continue;
                     // ignore the link if it is blocked.
                     if (isBlockedLink(l)) continue;
-
                     // ignore this link if it is in broadcast domain
                     if (isBroadcastDomainLink(l)) continue;
-
-                    // Get the DFS object corresponding to the dstSw
-                    ClusterDFS dstDFS = dfsList.get(dstSw);
-
-                    if (dstDFS.getDfsIndex() < currDFS.getDfsIndex()) {
-                        // could be a potential lowpoint
-                        if (dstDFS.getDfsIndex() < currDFS.getLowpoint())
-                            currDFS.setLowpoint(dstDFS.getDfsIndex());
-
-                    } else if (!dstDFS.isVisited()) {
-                        // make a DFS visit
-                        currIndex = dfsTraverse(currDFS.getDfsIndex(), currIndex, dstSw,
-                                                dfsList, currSet);
-
-                        if (currIndex < 0) return -1;
-
-                        // update lowpoint after the visit
-                        if (dstDFS.getLowpoint() < currDFS.getLowpoint())
-                            currDFS.setLowpoint(dstDFS.getLowpoint());
-                    }
-                    // else, it is a node already visited with a higher
-                    // dfs index, just ignore.
+                    int v = getSwitchIndex(l.getDst());
+                    if (v < 0) continue;
+                    if (m == linkDst.length)
+                        linkDst = Arrays.copyOf(linkDst, m * 2);
+                    linkDst[m++] = v;
                 }
             }
         }
+        linkStart[n] = m;
+
+        // dfsIndex is 0 for switches not visited yet
+        int[] dfsIndex = new int[n];
+        int[] lowpoint = new int[n];
+        boolean[] onStack = new boolean[n];
+        // switches visited and not yet in a cluster
+        int[] stack = new int[n];
+        int stackSize = 0;
+        // the switches of the search path, with the next link of each
+        int[] path = new int[n];
+        int[] nextLink = new int[n];
+        int depth = 0;
+        int currIndex = 1;
+
+        for (int root = 0; root < n; root++) {
+            if (dfsIndex[root] != 0) continue;
+            path[0] = root;
+            nextLink[0] = linkStart[root];
+            dfsIndex[root] = lowpoint[root] = currIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            depth = 1;
+
+            while (depth > 0) {
+                int u = path[depth - 1];
+                if (nextLink[depth - 1] < linkStart[u + 1]) {
+                    int v = linkDst[nextLink[depth - 1]++];
+                    if (dfsIndex[v] == 0) {
+                        // make a DFS visit
+                        dfsIndex[v] = lowpoint[v] = currIndex++;
+                        stack[stackSize++] = v;
+                        onStack[v] = true;
+                        path[depth] = v;
+                        nextLink[depth] = linkStart[v];
+                        depth++;
+                    } else if (onStack[v] && dfsIndex[v] < lowpoint[u]) {
+                        // could be a potential lowpoint
+                        lowpoint[u] = dfsIndex[v];
+                    }
+                    // else, the switch is already in another cluster
+                    continue;
+                }
 
-        // Add current node to currSet.
-        currSet.add(currSw);
-
-        // Cluster computation.
-        // If the node's lowpoint is greater than its parent's DFS index,
-        // we need to form a new cluster with all the switches in the
-        // currSet.
-        if (currDFS.getLowpoint() > currDFS.getParentDFSIndex()) {
-            // The cluster thus far forms a strongly connected component.
-            // create a new switch cluster and the switches in the current
-            // set to the switch cluster.
-            Cluster sc = new Cluster();
-            for(long sw: currSet){
-                sc.add(sw);
-                switchClusterMap.put(sw, sc);
+                // all the links of u are explored
+                depth--;
+                if (depth > 0) {
+                    // update lowpoint of the parent after the visit
+                    int parent = path[depth - 1];
+                    if (lowpoint[u] < lowpoint[parent])
+                        lowpoint[parent] = lowpoint[u];
+                }
+                if (lowpoint[u] == dfsIndex[u]) {
+                    // u and the switches above it on the stack form a
+                    // strongly connected component.
+                    Cluster sc = new Cluster();
+                    int sw;
+                    do {
+                        sw = stack[--stackSize];
+                        onStack[sw] = false;
+                        sc.add(indexedSwitches[sw]);
+                        switchClusterMap.put(indexedSwitches[sw], sc);
+                    } while (sw != u);
+                    clusters.add(sc);
+                }
             }
-            // delete all the nodes in the current set.
-            currSet.clear();
-            // add the newly formed switch clusters to the cluster set.
-            clusters.add(sc);
         }
-        return currIndex;
     }
 
     /**
@@ -559,22 +615,522 @@ public class TopologyInstance {
 
     protected void calculateShortestPathTreeInClusters() {
         pathcache.clear();
+        multipathcache.clear();
         destinationRootedTrees.clear();
+        equalCostNextHops.clear();
         
-        //portStats = new FIUPortStatistics();
+        Map<Link, Integer> linkCost = calculateLinkCosts();
+        pathLinkCosts = linkCost;
+
+        if (lazyPaths) {
+            // the trees are computed by getTree() when they are needed
+            buildClusterGraphs(linkCost);
+            return;
+        }
+
+        // Every tree is independent, and the cluster graphs are read-only,
+        // so the trees are computed in parallel and merged in a fixed
+        // order.
+        buildClusterGraphs(linkCost);
+        List<ClusterGraph> treeGraphs = new ArrayList<ClusterGraph>();
+        List<Long> treeRoots = new ArrayList<Long>();
+        for(Cluster c: clusters) {
+            ClusterGraph g = clusterGraphs.get(c.getId());
+            for (int i = 0; i < g.size(); i++) {
+                treeGraphs.add(g);
+                treeRoots.add(g.getDpid(i));
+            }
+        }
+        ShortestPathTreeTask task =
+                new ShortestPathTreeTask(treeGraphs, treeRoots);
+        if (forkJoinPool == null || treeRoots.size() <= TREES_PER_TASK) {
+            task.compute();
+        } else {
+            forkJoinPool.invoke(task);
+        }
+        for (int i = 0; i < treeRoots.size(); i++) {
+            destinationRootedTrees.put(treeRoots.get(i), task.trees[i]);
+            equalCostNextHops.put(treeRoots.get(i), task.nexthops[i]);
+        }
+    }
+
+    /**
+     * Computes a range of destination-rooted trees and their equal-cost
+     * next hops, splitting the range until it is small enough.
+     */
+    protected class ShortestPathTreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final List<ClusterGraph> treeGraphs;
+        final List<Long> treeRoots;
+        final BroadcastTree[] trees;
+        final Map<Long, List<Link>>[] nexthops;
+        final int lo, hi;
+
+        @SuppressWarnings("unchecked")
+        ShortestPathTreeTask(List<ClusterGraph> treeGraphs,
+                             List<Long> treeRoots) {
+            this(treeGraphs, treeRoots,
+                 new BroadcastTree[treeRoots.size()],
+                 new Map[treeRoots.size()], 0, treeRoots.size());
+        }
+
+        ShortestPathTreeTask(List<ClusterGraph> treeGraphs,
+                             List<Long> treeRoots,
+                             BroadcastTree[] trees,
+                             Map<Long, List<Link>>[] nexthops,
+                             int lo, int hi) {
+            this.treeGraphs = treeGraphs;
+            this.treeRoots = treeRoots;
+            this.trees = trees;
+            this.nexthops = nexthops;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= TREES_PER_TASK) {
+                ClusterGraph.Workspace ws =
+                        new ClusterGraph.Workspace(treeGraphs.get(lo).size());
+                for (int i = lo; i < hi; i++) {
+                    ClusterGraph g = treeGraphs.get(i);
+                    g.shortestPaths(g.indexOf(treeRoots.get(i)), ws);
+                    trees[i] = g.getTree(ws);
+                    nexthops[i] = g.getEqualCostNextHops(ws);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ShortestPathTreeTask(treeGraphs, treeRoots,
+                                               trees, nexthops, lo, mid),
+                      new ShortestPathTreeTask(treeGraphs, treeRoots,
+                                               trees, nexthops, mid, hi));
+        }
+    }
+
+    /**
+     * Compiles the links of every cluster for shortest path computations.
+     */
+    protected void buildClusterGraphs(Map<Link, Integer> linkCost) {
+        clusterGraphs.clear();
+        for (Cluster c : clusters) {
+            clusterGraphs.put(c.getId(), new ClusterGraph(c, linkCost));
+        }
+    }
+
+    /**
+     * Builds the path matrix of every cluster of up to pathMatrixSize
+     * switches from its destination-rooted trees, one row per tree, in
+     * parallel when there is a pool.
+     */
+    protected void calculatePathMatrices() {
+        if (lazyPaths) {
+            // the rows would need every tree
+            switchMatrices = null;
+            return;
+        }
+        switchMatrices = new PathMatrix[indexedSwitches.length];
+        matrixIndices = new int[indexedSwitches.length];
+        List<PathMatrix> rowMatrices = new ArrayList<PathMatrix>();
+        List<Integer> rowDsts = new ArrayList<Integer>();
+        List<BroadcastTree> rowTrees = new ArrayList<BroadcastTree>();
+        for (Cluster c : clusters) {
+            ClusterGraph g = clusterGraphs.get(c.getId());
+            if (g == null || g.size() > pathMatrixSize) continue;
+            PathMatrix m = new PathMatrix(g);
+            for (int i = 0; i < g.size(); i++) {
+                rowMatrices.add(m);
+                rowDsts.add(i);
+                rowTrees.add(destinationRootedTrees.get(g.getDpid(i)));
+                int index = getSwitchIndex(g.getDpid(i));
+                if (index < 0) continue;
+                switchMatrices[index] = m;
+                matrixIndices[index] = i;
+            }
+        }
+        PathMatrixTask task = new PathMatrixTask(rowMatrices, rowDsts,
+                                                 rowTrees, 0, rowTrees.size());
+        if (forkJoinPool == null || rowTrees.size() <= TREES_PER_TASK) {
+            task.compute();
+        } else {
+            forkJoinPool.invoke(task);
+        }
+    }
+
+    /**
+     * Fills a range of rows of path matrices, splitting the range until
+     * it is small enough.
+     */
+    protected class PathMatrixTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final List<PathMatrix> rowMatrices;
+        final List<Integer> rowDsts;
+        final List<BroadcastTree> rowTrees;
+        final int lo, hi;
+
+        PathMatrixTask(List<PathMatrix> rowMatrices, List<Integer> rowDsts,
+                       List<BroadcastTree> rowTrees, int lo, int hi) {
+            this.rowMatrices = rowMatrices;
+            this.rowDsts = rowDsts;
+            this.rowTrees = rowTrees;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= TREES_PER_TASK) {
+                for (int i = lo; i < hi; i++) {
+                    rowMatrices.get(i).setRow(rowDsts.get(i), rowTrees.get(i));
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new PathMatrixTask(rowMatrices, rowDsts, rowTrees,
+                                         lo, mid),
+                      new PathMatrixTask(rowMatrices, rowDsts, rowTrees,
+                                         mid, hi));
+        }
+    }
+
+    /**
+     * Sets the largest cluster for which a path matrix is built.  Must be
+     * called before compute().
+     * @param pathMatrixSize The number of switches, or 0 to not build any
+     */
+    public void setPathMatrixSize(int pathMatrixSize) {
+        this.pathMatrixSize = pathMatrixSize;
+    }
+
+    /**
+     * Returns the path matrix of the cluster of a switch, or null if the
+     * switch is not in a cluster or its cluster is too large.
+     */
+    public PathMatrix getPathMatrix(long switchId) {
+        int index = getSwitchIndex(switchId);
+        if (index < 0 || switchMatrices == null) return null;
+        return switchMatrices[index];
+    }
+
+    protected void calculateCandidatePaths() {
+        if (fatTreeLayout == null) {
+            candidatePaths = null;
+            return;
+        }
+        candidatePaths = new CandidatePathIndex(fatTreeLayout,
+                                                getClusterLinks(),
+                                                pathLinkCosts);
+    }
+
+    /**
+     * Sets the tier and pod of the switches, to index the candidate paths
+     * of the fat-tree.  Must be called before compute().
+     * @param fatTreeLayout The layout, or null to not index them
+     */
+    public void setFatTreeLayout(FatTreeLayout fatTreeLayout) {
+        this.fatTreeLayout = fatTreeLayout;
+    }
+
+    /**
+     * Returns the candidate paths between the edge switches of the
+     * fat-tree, or null if there is no layout.
+     */
+    public CandidatePathIndex getCandidatePaths() {
+        return candidatePaths;
+    }
+
+    /**
+     * Sets the pool used to compute the shortest path trees in parallel.
+     * @param forkJoinPool The pool, or null to compute them sequentially
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Updates the shortest path trees of the previous instance with the
+     * links that changed since.  A removed link only affects the trees in
+     * which it is the next hop of its source; the subtree below it is
+     * detached and reattached through the cheapest remaining links.  An
+     * added link only affects the trees in which it shortens the path of
+     * its source, and the decrease is propagated upstream.  A link whose
+     * cost changed is removed and added again.  The other trees and their
+     * equal-cost next hops are shared with the previous instance.
+     * @return false if the clusters changed or too many links changed,
+     *         in which case nothing was updated
+     */
+    protected boolean updateShortestPathTreesInClusters(TopologyInstance previous) {
+        if (previous.pathLinkCosts == null) return false;
+        if (!switches.equals(previous.switches)) return false;
+        // the clusters are the same if every switch is in a cluster with
+        // the same id, the id being the smallest switch of the cluster
+        for (Long sw : switches) {
+            Cluster c = switchClusterMap.get(sw);
+            Cluster pc = previous.switchClusterMap.get(sw);
+            if (c == null || pc == null) {
+                if (c != pc) return false;
+                continue;
+            }
+            if (c.getId() != pc.getId()) return false;
+        }
+
+        Map<Link, Integer> linkCost = calculateLinkCosts();
+        Set<Link> links = getClusterLinks();
+        Set<Link> previousLinks = previous.getClusterLinks();
+        List<Link> removed = new ArrayList<Link>();
+        List<Link> added = new ArrayList<Link>();
+        Set<Link> changed = new HashSet<Link>();
+        for (Link link : previousLinks) {
+            if (!links.contains(link)) {
+                removed.add(link);
+            } else if (getWeight(linkCost, link) !=
+                       getWeight(previous.pathLinkCosts, link)) {
+                removed.add(link);
+                added.add(link);
+                changed.add(link);
+            }
+        }
+        for (Link link : links) {
+            if (!previousLinks.contains(link)) added.add(link);
+        }
+        if (removed.size() + added.size() - changed.size() >
+                MAX_INCREMENTAL_LINK_CHANGES) {
+            return false;
+        }
+
+        pathcache.clear();
+        multipathcache.clear();
+        destinationRootedTrees.clear();
+        equalCostNextHops.clear();
+        // the trees of a lazy instance may be computed meanwhile; the next
+        // hops of a tree are always stored before the tree
+        Map<Long, BroadcastTree> previousTrees =
+                new HashMap<Long, BroadcastTree>(previous.destinationRootedTrees);
+        for (Long root : previousTrees.keySet()) {
+            equalCostNextHops.put(root, previous.equalCostNextHops.get(root));
+        }
+        destinationRootedTrees.putAll(previousTrees);
+        pathLinkCosts = linkCost;
+        buildClusterGraphs(linkCost);
+
+        int updated = 0;
+        for (Map.Entry<Long, BroadcastTree> e : previousTrees.entrySet()) {
+            Long root = e.getKey();
+            Cluster c = switchClusterMap.get(root);
+            if (c == null) continue;
+            BroadcastTree tree = e.getValue();
+            boolean treeChanged = false;
+            boolean nexthopsChanged = false;
+
+            HashMap<Long, Link> nexthoplinks = null;
+            HashMap<Long, Integer> cost = null;
+            for (Link link : removed) {
+                if (!c.links.containsKey(link.getSrc())) continue;
+                Link treeLink = (nexthoplinks == null)
+                        ? tree.getTreeLink(link.getSrc())
+                        : nexthoplinks.get(link.getSrc());
+                if (link.equals(treeLink)) {
+                    if (nexthoplinks == null) {
+                        nexthoplinks = new HashMap<Long, Link>(tree.getLinks());
+                        cost = new HashMap<Long, Integer>(tree.getCosts());
+                    }
+                    removeTreeLink(c, link, nexthoplinks, cost,
+                                   linkCost, changed);
+                    treeChanged = true;
+                } else if (!treeChanged) {
+                    List<Link> nexthops =
+                            previous.getEqualCostNextHops(root, link.getSrc());
+                    if (nexthops != null && nexthops.contains(link))
+                        nexthopsChanged = true;
+                }
+            }
+            for (Link link : added) {
+                if (!c.links.containsKey(link.getSrc())) continue;
+                int srcDist = (cost == null)
+                        ? tree.getCost(link.getSrc()) : cost.get(link.getSrc());
+                int dstDist = (cost == null)
+                        ? tree.getCost(link.getDst()) : cost.get(link.getDst());
+                if (dstDist < 0 || dstDist >= MAX_PATH_WEIGHT) continue;
+                int dist = dstDist + getWeight(linkCost, link);
+                if (dist < srcDist) {
+                    if (nexthoplinks == null) {
+                        nexthoplinks = new HashMap<Long, Link>(tree.getLinks());
+                        cost = new HashMap<Long, Integer>(tree.getCosts());
+                    }
+                    addTreeLink(c, link, nexthoplinks, cost, linkCost);
+                    treeChanged = true;
+                } else if (dist == srcDist) {
+                    nexthopsChanged = true;
+                }
+            }
+
+            if (treeChanged) {
+                tree = new BroadcastTree(nexthoplinks, cost);
+                destinationRootedTrees.put(root, tree);
+            }
+            if (treeChanged || nexthopsChanged) {
+                equalCostNextHops.put(root,
+                        calculateEqualCostNextHops(c, tree, linkCost));
+                updated++;
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Updated {} of {} shortest path trees for {} removed " +
+                      "and {} added links",
+                      new Object[] {updated, destinationRootedTrees.size(),
+                                    removed.size(), added.size()});
+        }
+        return true;
+    }
+
+    /**
+     * Removes the next hop link of a switch from a destination-rooted
+     * tree, and reattaches the switch and every switch whose path went
+     * through it.
+     * @param excluded Links that are still in the cluster but must not be
+     *                 used, because they are added again later
+     */
+    protected void removeTreeLink(Cluster c, Link removed,
+                                  HashMap<Long, Link> nexthoplinks,
+                                  HashMap<Long, Integer> cost,
+                                  Map<Link, Integer> linkCost,
+                                  Set<Link> excluded) {
+        // the switches whose path goes through the source of the link
+        Map<Long, List<Long>> children = new HashMap<Long, List<Long>>();
+        for (Map.Entry<Long, Link> e : nexthoplinks.entrySet()) {
+            if (e.getValue() == null) continue;
+            Long parent = e.getValue().getDst();
+            List<Long> l = children.get(parent);
+            if (l == null) {
+                l = new ArrayList<Long>(2);
+                children.put(parent, l);
+            }
+            l.add(e.getKey());
+        }
+        Set<Long> detached = new HashSet<Long>();
+        LinkedList<Long> queue = new LinkedList<Long>();
+        queue.add(removed.getSrc());
+        while (!queue.isEmpty()) {
+            Long node = queue.poll();
+            if (!detached.add(node)) continue;
+            List<Long> l = children.get(node);
+            if (l != null) queue.addAll(l);
+        }
+        for (Long node : detached) {
+            nexthoplinks.put(node, null);
+            cost.put(node, MAX_PATH_WEIGHT);
+        }
+
+        // the cheapest link from every detached switch to the rest of the
+        // tree, then dijkstra within the detached switches
+        PriorityQueue<NodeDist> nodeq = new PriorityQueue<NodeDist>();
+        for (Long node : detached) {
+            for (Link link : c.links.get(node)) {
+                if (link.getSrc() != node.longValue()) continue;
+                if (detached.contains(link.getDst())) continue;
+                if (link.equals(removed) || excluded.contains(link)) continue;
+                int ndist = cost.get(link.getDst()) + getWeight(linkCost, link);
+                if (ndist < cost.get(node)) {
+                    cost.put(node, ndist);
+                    nexthoplinks.put(node, link);
+                }
+            }
+            if (cost.get(node) < MAX_PATH_WEIGHT)
+                nodeq.add(new NodeDist(node, cost.get(node)));
+        }
+        while (nodeq.peek() != null) {
+            NodeDist n = nodeq.poll();
+            Long cnode = n.getNode();
+            if (n.getDist() > cost.get(cnode)) continue;
+            for (Link link : c.links.get(cnode)) {
+                Long neighbor = link.getSrc();
+                if (neighbor.equals(cnode)) continue;
+                if (!detached.contains(neighbor)) continue;
+                if (link.equals(removed) || excluded.contains(link)) continue;
+                int ndist = n.getDist() + getWeight(linkCost, link);
+                if (ndist < cost.get(neighbor)) {
+                    cost.put(neighbor, ndist);
+                    nexthoplinks.put(neighbor, link);
+                    nodeq.add(new NodeDist(neighbor, ndist));
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a link that shortens the path of its source the next hop of
+     * the source in a destination-rooted tree, and propagates the shorter
+     * distance to the switches upstream.
+     */
+    protected void addTreeLink(Cluster c, Link added,
+                               HashMap<Long, Link> nexthoplinks,
+                               HashMap<Long, Integer> cost,
+                               Map<Link, Integer> linkCost) {
+        Long src = added.getSrc();
+        int dist = cost.get(added.getDst()) + getWeight(linkCost, added);
+        cost.put(src, dist);
+        nexthoplinks.put(src, added);
+
+        PriorityQueue<NodeDist> nodeq = new PriorityQueue<NodeDist>();
+        nodeq.add(new NodeDist(src, dist));
+        while (nodeq.peek() != null) {
+            NodeDist n = nodeq.poll();
+            Long cnode = n.getNode();
+            if (n.getDist() > cost.get(cnode)) continue;
+            for (Link link : c.links.get(cnode)) {
+                Long neighbor = link.getSrc();
+                if (neighbor.equals(cnode)) continue;
+                int ndist = n.getDist() + getWeight(linkCost, link);
+                if (ndist < cost.get(neighbor)) {
+                    cost.put(neighbor, ndist);
+                    nexthoplinks.put(neighbor, link);
+                    nodeq.add(new NodeDist(neighbor, ndist));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the next hop links of a switch on the shortest paths
+     * towards a destination, or null if there are none.
+     */
+    protected List<Link> getEqualCostNextHops(long root, long node) {
+        Map<Long, List<Link>> nexthops = equalCostNextHops.get(root);
+        return (nexthops == null) ? null : nexthops.get(node);
+    }
+
+    /**
+     * Returns all the links inside the clusters.
+     */
+    protected Set<Link> getClusterLinks() {
+        Set<Link> links = new HashSet<Link>();
+        for (Cluster c : clusters) {
+            for (Set<Link> l : c.links.values()) {
+                links.addAll(l);
+            }
+        }
+        return links;
+    }
+
+    protected static int getWeight(Map<Link, Integer> linkCost, Link link) {
+        Integer w = (linkCost == null) ? null : linkCost.get(link);
+        return (w == null) ? 1 : w;
+    }
+
+    /**
+     * Returns the weights of the links used by dijkstra: the link costs
+     * set by the topology manager, and a high weight for tunnel links.
+     */
+    protected Map<Link, Integer> calculateLinkCosts() {
         Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
-        
-        /*********** FIU VARIABLES START*****************/
-        HashMap<Long, Link> mynexthoplinks = new HashMap<Long, Link>();
-        HashMap<Long, HashMap<Long, Set<Link>>> mycanpaths = new HashMap<Long, HashMap<Long, Set<Link>>>();
-        HashMap<Long, Set<Link>> canpathdest = new HashMap<Long, Set<Link>>();
-        Set<Link> canpathdestlinks = new HashSet<Link>();
-        Long mysrcswitch;
-        Long mydstswitch;
-        boolean samepod;
-        boolean samepodforcalc;
-        /************FIU VARIABLES END******************************/
+        if (linkCosts != null) linkCost.putAll(linkCosts);
+
         int tunnel_weight = switchPorts.size() + 1;
+        // a tunnel must still cost more than any path of congested links
+        if (linkCosts != null)
+            tunnel_weight *= 2 * LinkCostProvider.BASE_LINK_COST;
 
         for(NodePortTuple npt: tunnelPorts) {
             if (switchPortLinks.get(npt) == null) continue;
@@ -582,118 +1138,64 @@ public class TopologyInstance {
                 if (link == null) continue;
                 linkCost.put(link, tunnel_weight);
             }
-        } /*********************FIU CODE STARTS HERE FOR CALCULATING CANDIDATE PATHS***************************/
-        
-        for (Cluster mycluster: clusters) {
-        	for (int i=1; i<=portStats.tors.size(); i++) {
-        	mysrcswitch = portStats.tors.get(i);
-        		for (int j=1; j<=portStats.tors.size(); j++) {
-        			mydstswitch = portStats.tors.get(j);
-        			if (mysrcswitch == mydstswitch)
-        				continue;
-        			if (portStats.p1.contains(mysrcswitch) && portStats.p1.contains(mydstswitch))
-        				samepod = true;
-        			else if (portStats.p2.contains(mysrcswitch) && portStats.p2.contains(mydstswitch))
-        				samepod = true;
-        			else if (portStats.p3.contains(mysrcswitch) && portStats.p3.contains(mydstswitch))
-        				samepod = true;
-        			else if (portStats.p4.contains(mysrcswitch) && portStats.p4.contains(mydstswitch))
-        				samepod = true;
-        			else 
-        				samepod = false;
-        			
-        			if (samepod==true) {
-        				for (Link mytorsrclink: mycluster.links.get(mysrcswitch)) {
-        					if (portStats.aggs.contains(mytorsrclink.getDst())) {
-        						for(Link myaggsrclink: mycluster.links.get(mytorsrclink.getDst())) {
-        							if (myaggsrclink.getDst()==mydstswitch) {
-        								canpathdestlinks.add(mytorsrclink);
-        								canpathdestlinks.add(myaggsrclink);
-        								canpathdest.put(mydstswitch, canpathdestlinks);
-        								mycanpaths.put(mysrcswitch, canpathdest);
-        								canpathdestlinks.clear();
-        								
-        							}
-        						}
-        						
-        					}
-        				}
-        			}
-        			else if(samepod==false) {
-        				for (Link mytorsrclink: mycluster.links.get(mysrcswitch)) {
-        					if (portStats.aggs.contains(mytorsrclink.getDst())) {
-        						for (Link myaggsrclink: mycluster.links.get(mytorsrclink.getDst())) {
-        							if (portStats.core.contains(myaggsrclink.getDst())) {
-        								for (Link mycoresrclink: mycluster.links.get(myaggsrclink.getDst())) {
-        									if (portStats.p1.contains(mycoresrclink.getDst()) && portStats.p1.contains(mydstswitch))
-        										samepodforcalc=true;
-        									else if (portStats.p2.contains(mycoresrclink.getDst()) && portStats.p2.contains(mydstswitch))
-        										samepodforcalc=true;
-        									else if (portStats.p3.contains(mycoresrclink.getDst()) && portStats.p3.contains(mydstswitch))
-        										samepodforcalc=true;
-        									else if (portStats.p4.contains(mycoresrclink.getDst()) && portStats.p4.contains(mydstswitch))
-        										samepodforcalc=true;
-        									else 
-        										samepodforcalc=false;
-        									
-        									if (samepodforcalc==true) {
-        										for (Link myaggdestlink: mycluster.links.get(mycoresrclink.getDst())) {
-        											if (myaggdestlink.getDst()==mydstswitch) {
-        		        								canpathdestlinks.add(mytorsrclink);
-        		        								canpathdestlinks.add(myaggsrclink);
-        		        								canpathdestlinks.add(mycoresrclink);
-        		        								canpathdestlinks.add(myaggdestlink);
-        		        								canpathdest.put(mydstswitch, canpathdestlinks);
-        		        								mycanpaths.put(mysrcswitch, canpathdest);
-        		        								canpathdestlinks.clear();
-        												
-        											}
-        											
-        										}
-        									}
-        								}
-        							}
-        						}
-        					}
-        				}
-        				
-        			}
-        			}
-
-
-        		}
-
-        		for (Long mynode : mycluster.links.keySet()) {
-        			for (Link mylink : mycluster.links.get(mynode)) {
-        				mynexthoplinks.put(mynode, mylink);
-        				
-        				
-        			}
-        			
-        		}
-        	
-        }
-        System.out.println("MY NEXT HOP LINKS ARE----->>"+mynexthoplinks);
-        
-/**********************************FIU CODE ENDS HERE*****************************/
-        
-        for(Cluster c: clusters) {
-            for (Long node : c.links.keySet()) {
-                BroadcastTree tree = dijkstra(c, node, linkCost, true);
-                //Print Broadcast Tree;
-                //System.out.println(converter.convertDPID(node)+"\nBroadcast Tree\n"+tree);
-
-               
-                //Print Clusters
-                System.out.println("-------------------------Cluster Calculations----------------------");
-                System.out.println("Cluster calculation\n"+c.toString());
-               
-                
-                destinationRootedTrees.put(node, tree);
+        }
+        return linkCost;
+    }
+
+    /**
+     * Finds, for every switch of a cluster, all the links that start a
+     * shortest path towards the root of a destination-rooted tree: the
+     * links whose cost plus the distance of their far end equals the
+     * distance of the switch.
+     */
+    protected Map<Long, List<Link>> calculateEqualCostNextHops(Cluster c,
+                                                 BroadcastTree tree,
+                                                 Map<Link, Integer> linkCost) {
+        Map<Long, List<Link>> nexthops = new HashMap<Long, List<Link>>();
+        for (Long node : c.links.keySet()) {
+            int dist = tree.getCost(node);
+            if (dist <= 0 || dist >= MAX_PATH_WEIGHT) continue;
+
+            List<Link> links = new ArrayList<Link>(2);
+            for (Link link : c.links.get(node)) {
+                if (link.getSrc() != node) continue;
+                Integer w = (linkCost == null) ? null : linkCost.get(link);
+                int ndist = tree.getCost(link.getDst());
+                if (ndist < 0 || ndist >= MAX_PATH_WEIGHT) continue;
+                if (ndist + ((w == null) ? 1 : w) == dist) links.add(link);
             }
+            Collections.sort(links, new Comparator<Link>() {
+                @Override
+                public int compare(Link l1, Link l2) {
+                    return l1.getSrcPort() - l2.getSrcPort();
+                }
+            });
+            nexthops.put(node, links);
         }
+        return nexthops;
     }
     
+    /**
+     * Sets the costs of the links to use when computing the shortest
+     * paths.  Must be called before compute().
+     * @param linkCosts The costs, or null to route by hop count
+     */
+    public void setLinkCosts(Map<Link, Integer> linkCosts) {
+        this.linkCosts = linkCosts;
+    }
+
+    public Map<Link, Integer> getLinkCosts() {
+        if (linkCosts == null) return Collections.emptyMap();
+        return Collections.unmodifiableMap(linkCosts);
+    }
+
+    /**
+     * Returns the cost of a link used to compute the shortest paths.
+     */
+    public int getLinkCost(Link link) {
+        return getWeight(linkCosts, link);
+    }
+
     protected void calculateFIUAlgorithm(){
     	
     }
@@ -701,7 +1203,7 @@ public class TopologyInstance {
     protected void calculateBroadcastTreeInClusters() {
         for(Cluster c: clusters) {
             // c.id is the smallest node that's in the cluster
-            BroadcastTree tree = destinationRootedTrees.get(c.id);
+            BroadcastTree tree = getTree(c.id);
             clusterBroadcastTrees.put(c.id, tree);
         }
     }
@@ -732,17 +1234,33 @@ public class TopologyInstance {
         }
     }
 
+    /**
+     * Returns the path matrix that holds both switches, or null if they
+     * are in different clusters or their cluster has no matrix.
+     */
+    protected PathMatrix getCommonPathMatrix(long srcId, long dstId) {
+        if (switchMatrices == null) return null;
+        int src = getSwitchIndex(srcId);
+        int dst = getSwitchIndex(dstId);
+        if (src < 0 || dst < 0) return null;
+        PathMatrix m = switchMatrices[src];
+        return (m != null && m == switchMatrices[dst]) ? m : null;
+    }
+
     protected Route buildroute(RouteId id, long srcId, long dstId) {
-        NodePortTuple npt;
+        long[] hops = null;
 
-        LinkedList<NodePortTuple> switchPorts =
-                new LinkedList<NodePortTuple>();
+        PathMatrix m = getCommonPathMatrix(srcId, dstId);
+        if (m != null) {
+            hops = m.getPath(matrixIndices[getSwitchIndex(srcId)],
+                             matrixIndices[getSwitchIndex(dstId)]);
+            return (hops == null) ? null : new Route(id, new PackedPath(hops));
+        }
 
-        if (destinationRootedTrees == null) return null;
-        if (destinationRootedTrees.get(dstId) == null) return null;
+        BroadcastTree tree = getTree(dstId);
+        if (tree == null) return null;
 
-        Map<Long, Link> nexthoplinks =
-                destinationRootedTrees.get(dstId).getLinks();
+        Map<Long, Link> nexthoplinks = tree.getLinks();
 
         if (!switches.contains(srcId) || !switches.contains(dstId)) {
             // This is a switch that is not connected to any other switch
@@ -754,29 +1272,142 @@ public class TopologyInstance {
             // if srcId equals dstId --- and that too is an 'empty' path []
 
         } else if ((nexthoplinks!=null) && (nexthoplinks.get(srcId)!=null)) {
+            int length = 0;
+            for (long sw = srcId; sw != dstId;
+                 sw = nexthoplinks.get(sw).getDst()) {
+                length++;
+            }
+            hops = new long[length * 4];
+            int i = 0;
             while (srcId != dstId) {
                 Link l = nexthoplinks.get(srcId);
-
-                npt = new NodePortTuple(l.getSrc(), l.getSrcPort());
-                switchPorts.addLast(npt);
-                npt = new NodePortTuple(l.getDst(), l.getDstPort());
-                switchPorts.addLast(npt);
-                srcId = nexthoplinks.get(srcId).getDst();
+                hops[i++] = l.getSrc();
+                hops[i++] = l.getSrcPort();
+                hops[i++] = l.getDst();
+                hops[i++] = l.getDstPort();
+                srcId = l.getDst();
             }
         }
         // else, no path exists, and path equals null
 
         Route result = null;
-        if (switchPorts != null && !switchPorts.isEmpty()) 
-            result = new Route(id, switchPorts);
+        if (hops != null && hops.length > 0)
+            result = new Route(id, new PackedPath(hops));
         if (log.isTraceEnabled()) {
             log.trace("buildroute: {}", result);
         }
         return result;
     }
 
+    protected BroadcastTree getDestinationRootedTree(long dstId) {
+        return getTree(dstId);
+    }
+
+    /**
+     * Returns the destination-rooted tree of a switch, computing it and
+     * its equal-cost next hops first in lazy mode.  When several threads
+     * ask for the same tree at once each may compute it, but they all
+     * get the first one stored.
+     * @return The tree, or null if the switch is not in a cluster
+     */
+    protected BroadcastTree getTree(long dstId) {
+        BroadcastTree tree = destinationRootedTrees.get(dstId);
+        if (tree != null || !lazyPaths) return tree;
+        Cluster c = switchClusterMap.get(dstId);
+        if (c == null) return null;
+        ClusterGraph g = clusterGraphs.get(c.getId());
+        int root = (g == null) ? -1 : g.indexOf(dstId);
+        if (root < 0) return null;
+
+        ClusterGraph.Workspace ws = new ClusterGraph.Workspace(g.size());
+        g.shortestPaths(root, ws);
+        tree = g.getTree(ws);
+        // store the next hops first, so that a tree that is found always
+        // has its next hops
+        equalCostNextHops.putIfAbsent(dstId, g.getEqualCostNextHops(ws));
+        BroadcastTree stored = destinationRootedTrees.putIfAbsent(dstId, tree);
+        return (stored == null) ? tree : stored;
+    }
+
+    /**
+     * Computes the destination-rooted trees that were not used yet, in
+     * parallel when there is a pool, until the instance is retired.  Does
+     * nothing unless the trees are computed lazily.
+     */
+    public void warmShortestPathTrees() {
+        if (!lazyPaths) return;
+        List<Long> roots = new ArrayList<Long>();
+        for (Cluster c : clusters) {
+            for (Long sw : c.getNodes()) {
+                if (!destinationRootedTrees.containsKey(sw)) roots.add(sw);
+            }
+        }
+        TreeWarmingTask task = new TreeWarmingTask(roots, 0, roots.size());
+        if (forkJoinPool == null || roots.size() <= TREES_PER_TASK) {
+            task.compute();
+        } else {
+            forkJoinPool.invoke(task);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Warmed {} of {} shortest path trees",
+                      destinationRootedTrees.size(), switchClusterMap.size());
+        }
+    }
+
+    /**
+     * Computes the trees of a range of switches, splitting the range
+     * until it is small enough.
+     */
+    protected class TreeWarmingTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final List<Long> roots;
+        final int lo, hi;
+
+        TreeWarmingTask(List<Long> roots, int lo, int hi) {
+            this.roots = roots;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= TREES_PER_TASK) {
+                for (int i = lo; i < hi && !retired; i++) {
+                    getTree(roots.get(i));
+                }
+                return;
+            }
+            if (retired) return;
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new TreeWarmingTask(roots, lo, mid),
+                      new TreeWarmingTask(roots, mid, hi));
+        }
+    }
+
+    /**
+     * Stops warming the trees of this instance, once a newer instance
+     * replaces it.
+     */
+    public void retire() {
+        retired = true;
+    }
+
+    /**
+     * Sets whether the destination-rooted trees are computed on first use
+     * instead of in compute().  Must be called before compute().
+     */
+    public void setLazyPaths(boolean lazyPaths) {
+        this.lazyPaths = lazyPaths;
+    }
+
     protected int getCost(long srcId, long dstId) {
-        BroadcastTree bt = destinationRootedTrees.get(dstId);
+        PathMatrix m = getCommonPathMatrix(srcId, dstId);
+        if (m != null) {
+            return m.getDistance(matrixIndices[getSwitchIndex(srcId)],
+                                 matrixIndices[getSwitchIndex(dstId)]);
+        }
+        BroadcastTree bt = getTree(dstId);
         if (bt == null) return -1;
         return (bt.getCost(srcId));
     }
@@ -791,7 +1422,12 @@ public class TopologyInstance {
 
     // IRoutingEngineService interfaces
     protected boolean routeExists(long srcId, long dstId) {
-        BroadcastTree bt = destinationRootedTrees.get(dstId);
+        PathMatrix m = getCommonPathMatrix(srcId, dstId);
+        if (m != null) {
+            return m.getNextHop(matrixIndices[getSwitchIndex(srcId)],
+                                matrixIndices[getSwitchIndex(dstId)]) >= 0;
+        }
+        BroadcastTree bt = getTree(dstId);
         if (bt == null) return false;
         Link link = bt.getLinks().get(srcId);
         if (link == null) return false;
@@ -812,41 +1448,317 @@ public class TopologyInstance {
         if (srcId == dstId && srcPort == dstPort)
             return null;
 
-        List<NodePortTuple> nptList;
-        NodePortTuple npt;
-        Route r = getRoute(srcId, dstId);
-        if (r == null && srcId != dstId) return null;
-
-        if (r != null) {
-            nptList= new ArrayList<NodePortTuple>(r.getPath());
-        } else {
-            nptList = new ArrayList<NodePortTuple>();
-        }
-        npt = new NodePortTuple(srcId, srcPort);
-        nptList.add(0, npt); // add src port to the front
-        npt = new NodePortTuple(dstId, dstPort);
-        nptList.add(npt); // add dst port to the end
+        long key = getEndpointRouteKey(srcId, srcPort, dstId, dstPort);
+        Route r = (key < 0) ? null : endpointcache.get(key);
+        if (r == NO_ROUTE) return null;
+        if (r != null) return r;
 
+        Route core = getRoute(srcId, dstId);
         RouteId id = new RouteId(srcId, dstId);
-        r = new Route(id, nptList);
+        if (core != null) {
+            // the core path is shared with the cached switch route
+            PackedPath path = (PackedPath)core.getPath();
+            r = new Route(id, path.withEndpoints(srcId, srcPort,
+                                                 dstId, dstPort));
+        } else if (srcId == dstId) {
+            r = new Route(id, PackedPath.between(srcId, srcPort,
+                                                 dstId, dstPort));
+        }
+        if (key >= 0) endpointcache.put(key, (r == null) ? NO_ROUTE : r);
         return r;
     }
 
     protected Route getRoute(long srcId, long dstId) {
-        RouteId id = new RouteId(srcId, dstId);
-        Route result = null;
-        if (pathcache.containsKey(id)) {
-            result = pathcache.get(id);
-        } else {
-            result = buildroute(id, srcId, dstId);
-            pathcache.put(id, result);
+        long key = getRouteKey(srcId, dstId);
+        Route result = (key < 0) ? null : pathcache.get(key);
+        if (result == null) {
+            result = buildroute(new RouteId(srcId, dstId), srcId, dstId);
+            if (key >= 0) {
+                pathcache.put(key, (result == null) ? NO_ROUTE : result);
+            }
+        } else if (result == NO_ROUTE) {
+            result = null;
         }
         if (log.isTraceEnabled()) {
-            log.trace("getRoute: {} -> {}", id, result);
+            log.trace("getRoute: {} -> {}", new RouteId(srcId, dstId), result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the dense index of a switch, or -1 if it is not in the
+     * topology.  Looks the DPID up without boxing it.
+     */
+    protected int getSwitchIndex(long dpid) {
+        if (indexedSwitches == null) return -1;
+        int i = Arrays.binarySearch(indexedSwitches, dpid);
+        return (i < 0) ? -1 : i;
+    }
+
+    /**
+     * Returns the route cache key of a pair of switches, or -1 if either
+     * switch is not in the topology.
+     */
+    protected long getRouteKey(long srcId, long dstId) {
+        int src = getSwitchIndex(srcId);
+        int dst = getSwitchIndex(dstId);
+        if (src < 0 || dst < 0) return -1;
+        return RouteCache.pack(src, dst);
+    }
+
+    /**
+     * Returns the route cache key of a pair of switch ports, or -1 if
+     * either switch is not in the topology or has too high an index to
+     * share a key with its port.
+     */
+    protected long getEndpointRouteKey(long srcId, short srcPort,
+                                       long dstId, short dstPort) {
+        int src = getSwitchIndex(srcId);
+        int dst = getSwitchIndex(dstId);
+        if (src < 0 || dst < 0 || src > Short.MAX_VALUE || dst > 0xffff)
+            return -1;
+        return ((long)src << 48) | ((srcPort & 0xffffL) << 32) |
+               ((long)dst << 16) | (dstPort & 0xffffL);
+    }
+
+    /**
+     * Copies the cached routes of the previous instance that are still
+     * shortest paths: the routes that do not traverse a link that was
+     * removed or changed cost, and whose cost did not change.  When no
+     * link was added or got cheaper, routes can only have become longer,
+     * so the cached absence of a route and the equal-cost routes that
+     * avoid the changed links are kept as well.  Must be called after
+     * compute(), before the instance is used.
+     */
+    public void inheritRouteCaches(final TopologyInstance previous) {
+        if (previous == null || previous.pathLinkCosts == null ||
+            previous.indexedSwitches == null || pathLinkCosts == null) return;
+
+        Set<Link> links = getClusterLinks();
+        Set<Link> previousLinks = previous.getClusterLinks();
+        final List<NodePortTuple> stale = new ArrayList<NodePortTuple>();
+        boolean shorter = false;
+        for (Link link : previousLinks) {
+            int w = getWeight(previous.pathLinkCosts, link);
+            if (!links.contains(link)) {
+                stale.add(new NodePortTuple(link.getSrc(), link.getSrcPort()));
+            } else if (getWeight(pathLinkCosts, link) != w) {
+                stale.add(new NodePortTuple(link.getSrc(), link.getSrcPort()));
+                if (getWeight(pathLinkCosts, link) < w) shorter = true;
+            }
+        }
+        for (Link link : links) {
+            if (!previousLinks.contains(link)) {
+                shorter = true;
+                break;
+            }
+        }
+
+        // the stale routes are looked up with the segment of the entry
+        // locked: the cache updates the index of an entry under that lock,
+        // and the previous instance may still be adding and evicting
+        final List<Long> keys = new ArrayList<Long>();
+        final List<Route> routes = new ArrayList<Route>();
+        previous.pathcache.forEach(new RouteCache.Visitor<Route>() {
+            @Override
+            public void visit(long key, Route route) {
+                if (previous.routeIndex.traverses(key, stale)) return;
+                keys.add(key);
+                routes.add(route);
+            }
+        });
+        for (int i = 0; i < keys.size(); i++) {
+            long key = keys.get(i);
+            Route route = routes.get(i);
+            long src = previous.indexedSwitches[(int)(key >>> 32)];
+            long dst = previous.indexedSwitches[(int)key];
+            long newKey = getRouteKey(src, dst);
+            if (newKey < 0) continue;
+            if (route == NO_ROUTE) {
+                if (shorter) continue;
+            } else {
+                if (!hasSameCost(previous, src, dst)) continue;
+            }
+            pathcache.put(newKey, route);
+        }
+
+        if (shorter) return;
+        keys.clear();
+        final List<List<Route>> routeLists = new ArrayList<List<Route>>();
+        previous.multipathcache.forEach(new RouteCache.Visitor<List<Route>>() {
+            @Override
+            public void visit(long key, List<Route> value) {
+                if (previous.equalCostRouteIndex.traverses(key, stale)) return;
+                keys.add(key);
+                routeLists.add(value);
+            }
+        });
+        for (int i = 0; i < keys.size(); i++) {
+            long key = keys.get(i);
+            long src = previous.indexedSwitches[(int)(key >>> 32)];
+            long dst = previous.indexedSwitches[(int)key];
+            long newKey = getRouteKey(src, dst);
+            if (newKey < 0) continue;
+            if (!hasSameCost(previous, src, dst)) continue;
+            multipathcache.put(newKey, routeLists.get(i));
+        }
+    }
+
+    /**
+     * Returns true if the cost between two switches is the same as in a
+     * previous instance.  In lazy mode only the trees that both instances
+     * have already computed are compared, so that the caches are
+     * inherited without computing trees before the instance is used.
+     */
+    protected boolean hasSameCost(TopologyInstance previous,
+                                  long srcId, long dstId) {
+        if (lazyPaths &&
+            (!destinationRootedTrees.containsKey(dstId) ||
+             !previous.destinationRootedTrees.containsKey(dstId)))
+            return false;
+        return getCost(srcId, dstId) == previous.getCost(srcId, dstId);
+    }
+
+    /**
+     * Replaces the route caches, before the instance is used.
+     * @param capacity The maximum number of routes, and of lists of
+     *                 equal-cost routes
+     */
+    public void setRouteCaches(int capacity, RouteCache.Counters routeCounters,
+                               RouteCache.Counters endpointCounters,
+                               RouteCache.Counters equalCostCounters) {
+        routeIndex = new LinkRouteIndex();
+        equalCostRouteIndex = new LinkRouteIndex();
+        pathcache = new RouteCache<Route>(capacity, routeCounters,
+                                          new RouteIndexer());
+        endpointcache = new RouteCache<Route>(capacity, endpointCounters);
+        multipathcache =
+                new RouteCache<List<Route>>(capacity, equalCostCounters,
+                                            new EqualCostRouteIndexer());
+    }
+
+    /**
+     * Keeps routeIndex in step with pathcache.
+     */
+    protected class RouteIndexer implements RouteCache.Listener<Route> {
+        @Override
+        public void added(long key, Route route) {
+            if (route != NO_ROUTE) routeIndex.add(key, route.getPath());
+        }
+
+        @Override
+        public void removed(long key, Route route) {
+            if (route != NO_ROUTE) routeIndex.remove(key, route.getPath());
+        }
+    }
+
+    /**
+     * Keeps equalCostRouteIndex in step with multipathcache.
+     */
+    protected class EqualCostRouteIndexer
+            implements RouteCache.Listener<List<Route>> {
+        @Override
+        public void added(long key, List<Route> routes) {
+            for (Route r : routes) {
+                equalCostRouteIndex.add(key, r.getPath());
+            }
+        }
+
+        @Override
+        public void removed(long key, List<Route> routes) {
+            for (Route r : routes) {
+                equalCostRouteIndex.remove(key, r.getPath());
+            }
+        }
+    }
+
+    /**
+     * Returns all the equal-cost routes between two switches, up to
+     * {@link #MAX_EQUAL_COST_ROUTES}, in a stable order.
+     */
+    protected List<Route> getEqualCostRoutes(long srcId, long dstId) {
+        long key = getRouteKey(srcId, dstId);
+        List<Route> result = (key < 0) ? null : multipathcache.get(key);
+        if (result == null) {
+            result = buildEqualCostRoutes(new RouteId(srcId, dstId),
+                                          srcId, dstId);
+            if (key >= 0) multipathcache.put(key, result);
         }
         return result;
     }
 
+    protected List<Route> buildEqualCostRoutes(RouteId id, long srcId,
+                                               long dstId) {
+        getTree(dstId);
+        Map<Long, List<Link>> nexthops = equalCostNextHops.get(dstId);
+        if (srcId == dstId || nexthops == null || nexthops.get(srcId) == null)
+            return Collections.emptyList();
+
+        // depth-first walk of the shortest path DAG towards dstId; every
+        // step strictly lowers the distance so there are no cycles
+        List<Route> routes = new ArrayList<Route>();
+        LinkedList<Link> path = new LinkedList<Link>();
+        LinkedList<Iterator<Link>> stack = new LinkedList<Iterator<Link>>();
+        stack.push(nexthops.get(srcId).iterator());
+        while (!stack.isEmpty() && routes.size() < MAX_EQUAL_COST_ROUTES) {
+            Iterator<Link> it = stack.peek();
+            if (!it.hasNext()) {
+                stack.pop();
+                if (!path.isEmpty()) path.removeLast();
+                continue;
+            }
+            Link link = it.next();
+            path.addLast(link);
+            if (link.getDst() == dstId) {
+                long[] hops = new long[path.size() * 4];
+                int i = 0;
+                for (Link l : path) {
+                    hops[i++] = l.getSrc();
+                    hops[i++] = l.getSrcPort();
+                    hops[i++] = l.getDst();
+                    hops[i++] = l.getDstPort();
+                }
+                routes.add(new Route(id, new PackedPath(hops)));
+                path.removeLast();
+            } else {
+                List<Link> next = nexthops.get(link.getDst());
+                if (next == null) {
+                    path.removeLast();
+                } else {
+                    stack.push(next.iterator());
+                }
+            }
+        }
+        return Collections.unmodifiableList(routes);
+    }
+
+    /**
+     * Returns all the equal-cost routes between two switch ports, each
+     * with the source and destination ports added at the ends.
+     */
+    protected List<Route> getEqualCostRoutes(long srcId, short srcPort,
+                                             long dstId, short dstPort,
+                                             int maxRoutes) {
+        if (srcId == dstId && srcPort == dstPort)
+            return Collections.emptyList();
+
+        List<Route> routes = new ArrayList<Route>();
+        RouteId id = new RouteId(srcId, dstId);
+        if (srcId == dstId) {
+            routes.add(new Route(id, PackedPath.between(srcId, srcPort,
+                                                        dstId, dstPort)));
+            return routes;
+        }
+
+        for (Route r : getEqualCostRoutes(srcId, dstId)) {
+            if (routes.size() >= maxRoutes) break;
+            PackedPath path = (PackedPath)r.getPath();
+            routes.add(new Route(id, path.withEndpoints(srcId, srcPort,
+                                                        dstId, dstPort)));
+        }
+        return routes;
+    }
+
     protected BroadcastTree getBroadcastTreeForCluster(long clusterId){
         Cluster c = switchClusterMap.get(clusterId);
         if (c == null) return null;
@@ -11,10 +11,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -24,6 +30,7 @@ import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IHAListener;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.annotations.LogMessageDocs;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -36,11 +43,13 @@ import net.floodlightcontroller.packet.BSN;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.LLDP;
 import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.routing.BroadcastTree;
 import net.floodlightcontroller.routing.IRoutingService;
 import net.floodlightcontroller.routing.Link;
 import net.floodlightcontroller.routing.Route;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.web.TopologyWebRoutable;
+import edu.fiu.openflowresearch.FIUPortStatistics;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
@@ -73,14 +82,17 @@ public class TopologyManager implements
             "com.bigswitch.floodlight.topologymanager.tunnelEnabled";
 
     /** 
-     * Set of ports for each switch
+     * Set of ports for each switch.  The map and the sets are persistent,
+     * and are shared as they are with the topology instances.
      */
-    protected Map<Long, Set<Short>> switchPorts;
+    protected PersistentMap<Long, Set<Short>> switchPorts;
 
     /**
-     * Set of links organized by node port tuple
+     * Set of links organized by node port tuple.  The map and the sets
+     * are persistent, and are shared as they are with the topology
+     * instances.
      */
-    protected Map<NodePortTuple, Set<Link>> switchPortLinks;
+    protected PersistentMap<NodePortTuple, Set<Link>> switchPortLinks;
 
     /**
      * Set of direct links
@@ -126,6 +138,76 @@ public class TopologyManager implements
      */
     protected boolean dtLinksUpdated;
 
+    /**
+     * Provider of the congestion-aware link costs, or null when routing
+     * by hop count
+     */
+    protected LinkCostProvider linkCostProvider;
+    protected int linkCostPollInterval;
+    protected long linkCapacity;
+    protected double linkCostAlpha;
+    protected double linkCostHysteresis;
+    /**
+     * Flag that indicates if the congestion level of a link changed
+     * since the last topology instance was created.
+     */
+    protected AtomicBoolean linkCostsUpdated = new AtomicBoolean();
+
+    /**
+     * Link discovery updates are applied once none arrived for a quiet
+     * period, or once the oldest one waited maxUpdateDelay.  The quiet
+     * period doubles, up to maxQuietPeriod, while each batch closely
+     * follows the previous recompute, and halves back towards
+     * minQuietPeriod otherwise.
+     */
+    protected long minQuietPeriodMs = 1;
+    protected long maxQuietPeriodMs = 50;
+    protected long maxUpdateDelayMs = 200;
+    protected volatile long quietPeriodNanos =
+            TimeUnit.MILLISECONDS.toNanos(minQuietPeriodMs);
+    /** When the oldest queued update arrived, or 0 if none is queued */
+    protected AtomicLong firstQueuedNanos = new AtomicLong();
+    protected volatile long lastQueuedNanos;
+    protected long lastComputeNanos;
+    protected UpdateCounters updateCounters = new UpdateCounters();
+    /** Updates drained by the last applyUpdates() */
+    protected int lastBatchSize;
+    protected boolean useCongestionCosts;
+    /**
+     * Update the shortest path trees of the current instance when only a
+     * few links changed, instead of recomputing them from every switch
+     */
+    protected boolean incrementalPaths;
+    /**
+     * Compute the shortest path trees when they are first used, so that
+     * a new instance is published as soon as its clusters are known
+     */
+    protected boolean lazyPaths;
+    /** Compute the remaining trees of a lazy instance in the background */
+    protected boolean warmPaths;
+    /**
+     * Pool that computes the shortest path trees in parallel, or null
+     * to compute them on the topology thread
+     */
+    protected ForkJoinPool pathPool;
+    /**
+     * Executor that warms the trees of lazy instances: pathPool, or a
+     * thread of its own, so that warming never holds the shared scheduler
+     */
+    protected ExecutorService warmExecutor;
+    /** Tier and pod of the switches of the fat-tree */
+    protected FatTreeLayout fatTreeLayout;
+    /** Capacity of the route caches of every topology instance */
+    protected int routeCacheSize = RouteCache.DEFAULT_CAPACITY;
+    /** Largest cluster for which the next hops of all pairs are tabulated */
+    protected int pathMatrixSize = PathMatrix.DEFAULT_MAX_SIZE;
+    protected RouteCache.Counters routeCacheCounters =
+            new RouteCache.Counters();
+    protected RouteCache.Counters endpointRouteCacheCounters =
+            new RouteCache.Counters();
+    protected RouteCache.Counters equalCostRouteCacheCounters =
+            new RouteCache.Counters();
+
     /**
      * Thread for recomputing topology.  The thread is always running, 
      * however the function applyUpdates() has a blocking call.
@@ -139,6 +221,19 @@ public class TopologyManager implements
         @Override 
         public void run() {
             try {
+                // wait for the burst of updates to end, within the bound
+                long first = firstQueuedNanos.get();
+                if (first != 0) {
+                    long now = System.nanoTime();
+                    long wait = Math.min(
+                            lastQueuedNanos + quietPeriodNanos - now,
+                            first + TimeUnit.MILLISECONDS.toNanos(
+                                    maxUpdateDelayMs) - now);
+                    if (wait > 0) {
+                        newInstanceTask.reschedule(wait, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                }
                 updateTopology();
             }
             catch (Exception e) {
@@ -151,32 +246,62 @@ public class TopologyManager implements
         boolean newInstanceFlag;
         linksUpdated = false;
         dtLinksUpdated = false;
+        long first = firstQueuedNanos.getAndSet(0);
         applyUpdates();
+        long drained = System.nanoTime();
         newInstanceFlag = createNewInstance();
-        lastUpdateTime = new Date();
-        informListeners();
+        // an empty batch, or one whose updates were all absorbed, changed
+        // nothing the listeners need to hear about
+        if (newInstanceFlag || !appliedUpdates.isEmpty()) {
+            lastUpdateTime = new Date();
+            informListeners();
+        }
+
+        if (first != 0) {
+            adaptQuietPeriod(first);
+            updateCounters.addBatch(lastBatchSize, drained - first,
+                                    newInstanceFlag);
+        }
+        lastComputeNanos = System.nanoTime();
         return newInstanceFlag;
     }
 
+    /**
+     * Lengthens the quiet period when a batch started shortly after the
+     * previous recompute, as the previous batch was likely cut out of the
+     * same burst, and shortens it otherwise so that isolated updates are
+     * applied quickly.
+     */
+    protected void adaptQuietPeriod(long firstQueued) {
+        long min = TimeUnit.MILLISECONDS.toNanos(minQuietPeriodMs);
+        long max = TimeUnit.MILLISECONDS.toNanos(maxQuietPeriodMs);
+        long quiet = quietPeriodNanos;
+        if (lastComputeNanos != 0 && firstQueued - lastComputeNanos < max) {
+            quiet = Math.min(quiet * 2, max);
+        } else {
+            quiet = Math.max(quiet / 2, min);
+        }
+        quietPeriodNanos = quiet;
+        updateCounters.quietPeriodNanos = quiet;
+    }
+
     // **********************
     // ILinkDiscoveryListener
     // **********************
 
     @Override
     public void linkDiscoveryUpdate(LDUpdate update) {
-        boolean scheduleFlag = false;
-        // if there's no udpates in the queue, then
-        // we need to schedule an update.
-        if (ldUpdates.peek() == null)
-            scheduleFlag = true;
-
         if (log.isTraceEnabled()) {
             log.trace("Queuing update: {}", update);
         }
         ldUpdates.add(update);
 
-        if (scheduleFlag) {
-            newInstanceTask.reschedule(1, TimeUnit.MICROSECONDS);
+        long now = System.nanoTime();
+        lastQueuedNanos = now;
+        // if there were no updates queued, then we need to schedule an
+        // update; the worker waits for the rest of the burst itself.
+        if (firstQueuedNanos.compareAndSet(0, now)) {
+            newInstanceTask.reschedule(quietPeriodNanos, TimeUnit.NANOSECONDS);
         }
     }
     
@@ -495,6 +620,54 @@ public class TopologyManager implements
     public List<LDUpdate> getLastLinkUpdates() {
     	return appliedUpdates;
     }
+
+    @Override
+    public BroadcastTree getDestinationRootedTree(long dstId) {
+        return getDestinationRootedTree(dstId, true);
+    }
+
+    @Override
+    public BroadcastTree getDestinationRootedTree(long dstId,
+                                                  boolean tunnelEnabled) {
+        TopologyInstance ti = getCurrentInstance(tunnelEnabled);
+        return ti.getDestinationRootedTree(dstId);
+    }
+
+    @Override
+    public Map<Link, Integer> getLinkCosts() {
+        return getCurrentInstance(true).getLinkCosts();
+    }
+
+    @Override
+    public Map<String, RouteCache.Counters> getRouteCacheCounters() {
+        Map<String, RouteCache.Counters> m =
+                new HashMap<String, RouteCache.Counters>();
+        m.put("routes", routeCacheCounters);
+        m.put("endpoint-routes", endpointRouteCacheCounters);
+        m.put("equal-cost-routes", equalCostRouteCacheCounters);
+        return m;
+    }
+
+    @Override
+    public CandidatePathIndex getCandidatePaths() {
+        return getCurrentInstance(true).getCandidatePaths();
+    }
+
+    @Override
+    public UpdateCounters getUpdateCounters() {
+        return updateCounters;
+    }
+
+    @Override
+    public PathMatrix getPathMatrix(long switchId) {
+        return getCurrentInstance(true).getPathMatrix(switchId);
+    }
+
+    @Override
+    public double getPortUtilization(long sw, short port) {
+        if (linkCostProvider == null) return 0;
+        return linkCostProvider.getUtilization(sw, port);
+    }
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////
 
@@ -525,6 +698,22 @@ public class TopologyManager implements
         return ti.getRoute(src, srcPort, dst, dstPort);
     }
 
+    @Override
+    public List<Route> getEqualCostRoutes(long src, short srcPort,
+                                          long dst, short dstPort,
+                                          int maxRoutes) {
+        return getEqualCostRoutes(src, srcPort, dst, dstPort, maxRoutes, true);
+    }
+
+    @Override
+    public List<Route> getEqualCostRoutes(long src, short srcPort,
+                                          long dst, short dstPort,
+                                          int maxRoutes,
+                                          boolean tunnelEnabled) {
+        TopologyInstance ti = getCurrentInstance(tunnelEnabled);
+        return ti.getEqualCostRoutes(src, srcPort, dst, dstPort, maxRoutes);
+    }
+
     @Override
     public boolean routeExists(long src, long dst) {
         return routeExists(src, dst, true);
@@ -641,6 +830,31 @@ public class TopologyManager implements
         return l;
     }
 
+    @LogMessageDocs({
+        @LogMessageDoc(level="WARN",
+                message="Unknown link cost {cost}, routing by hop count",
+                explanation="The link cost must be either hops or congestion",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing route cache size, " +
+                        "using default of {number}",
+                explanation="The properties file contains an invalid " +
+                        "number for the route cache size",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing path computation parallelism, " +
+                        "using {number} threads",
+                explanation="The properties file contains an invalid " +
+                        "number for the path computation parallelism",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER),
+        @LogMessageDoc(level="WARN",
+                message="Error parsing link cost options, using poll " +
+                        "interval {number} ms, capacity {number} Mbps, " +
+                        "alpha {number} and hysteresis {number}",
+                explanation="The properties file contains an invalid " +
+                        "number for a link cost option",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    })
     @Override
     public void init(FloodlightModuleContext context)
             throws FloodlightModuleException {
@@ -650,21 +864,143 @@ public class TopologyManager implements
                 context.getServiceImpl(IFloodlightProviderService.class);
         restApi = context.getServiceImpl(IRestApiService.class);
 
-        switchPorts = new HashMap<Long,Set<Short>>();
-        switchPortLinks = new HashMap<NodePortTuple, Set<Link>>();
+        switchPorts = PersistentMap.empty();
+        switchPortLinks = PersistentMap.empty();
         directLinks = new HashMap<NodePortTuple, Set<Link>>();
         portBroadcastDomainLinks = new HashMap<NodePortTuple, Set<Link>>();
         tunnelLinks = new HashMap<NodePortTuple, Set<Link>>();
         topologyAware = new ArrayList<ITopologyListener>();
         ldUpdates = new LinkedBlockingQueue<LDUpdate>();
         appliedUpdates = new ArrayList<LDUpdate>();
+        fatTreeLayout =
+                FatTreeLayout.fromPortStatistics(new FIUPortStatistics());
         clearCurrentTopology();
+
+        Map<String, String> configOptions = context.getConfigParams(this);
+        linkCostPollInterval = LinkCostProvider.DEFAULT_POLL_INTERVAL_MS;
+        linkCapacity = LinkCostProvider.DEFAULT_CAPACITY_MBPS;
+        linkCostAlpha = LinkCostProvider.DEFAULT_ALPHA;
+        linkCostHysteresis = LinkCostProvider.DEFAULT_HYSTERESIS;
+        try {
+            String interval = configOptions.get("linkcostpollinterval");
+            if (interval != null) {
+                linkCostPollInterval = Integer.parseInt(interval);
+            }
+            String capacity = configOptions.get("linkcapacity");
+            if (capacity != null) {
+                linkCapacity = Long.parseLong(capacity);
+            }
+            String alpha = configOptions.get("linkcostalpha");
+            if (alpha != null) {
+                linkCostAlpha = Double.parseDouble(alpha);
+            }
+            String hysteresis = configOptions.get("linkcosthysteresis");
+            if (hysteresis != null) {
+                linkCostHysteresis = Double.parseDouble(hysteresis);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing link cost options, using poll " +
+                     "interval {} ms, capacity {} Mbps, alpha {} and " +
+                     "hysteresis {}",
+                     new Object[] {linkCostPollInterval, linkCapacity,
+                                   linkCostAlpha, linkCostHysteresis});
+        }
+        incrementalPaths =
+                Boolean.parseBoolean(configOptions.get("incrementalpaths"));
+        try {
+            String quiet = configOptions.get("updatequietms");
+            if (quiet != null) {
+                minQuietPeriodMs = Long.parseLong(quiet);
+            }
+            quiet = configOptions.get("updatemaxquietms");
+            if (quiet != null) {
+                maxQuietPeriodMs = Long.parseLong(quiet);
+            }
+            String delay = configOptions.get("updatemaxdelayms");
+            if (delay != null) {
+                maxUpdateDelayMs = Long.parseLong(delay);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing update coalescing options, using " +
+                     "quiet period {} to {} ms and maximum delay {} ms",
+                     new Object[] {minQuietPeriodMs, maxQuietPeriodMs,
+                                   maxUpdateDelayMs});
+        }
+        maxQuietPeriodMs = Math.max(maxQuietPeriodMs, minQuietPeriodMs);
+        quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(minQuietPeriodMs);
+        updateCounters.quietPeriodNanos = quietPeriodNanos;
+        lazyPaths = Boolean.parseBoolean(configOptions.get("lazypaths"));
+        warmPaths = Boolean.parseBoolean(configOptions.get("warmpaths"));
+        try {
+            String size = configOptions.get("routecachesize");
+            if (size != null) {
+                routeCacheSize = Integer.parseInt(size);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing route cache size, " +
+                     "using default of {}", routeCacheSize);
+        }
+        try {
+            String size = configOptions.get("pathmatrixsize");
+            if (size != null) {
+                pathMatrixSize = Integer.parseInt(size);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing path matrix size, " +
+                     "using default of {}", pathMatrixSize);
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        try {
+            String threads = configOptions.get("pathparallelism");
+            if (threads != null) {
+                parallelism = Integer.parseInt(threads);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing path computation parallelism, " +
+                     "using {} threads", parallelism);
+        }
+        if (parallelism > 1) {
+            pathPool = new ForkJoinPool(parallelism);
+        }
+        if (lazyPaths && warmPaths) {
+            if (pathPool != null) {
+                warmExecutor = pathPool;
+            } else {
+                warmExecutor = Executors.newSingleThreadExecutor(
+                        new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "TopologyTreeWarmer");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+            }
+        }
+        String cost = configOptions.get("linkcost");
+        useCongestionCosts = "congestion".equals(cost);
+        if (cost != null && !useCongestionCosts && !cost.equals("hops")) {
+            log.warn("Unknown link cost {}, routing by hop count", cost);
+        }
     }
 
     @Override
     public void startUp(FloodlightModuleContext context) {
         ScheduledExecutorService ses = threadPool.getScheduledExecutor();
         newInstanceTask = new SingletonTask(ses, new UpdateTopologyWorker());
+        if (useCongestionCosts) {
+            linkCostProvider =
+                    new LinkCostProvider(floodlightProvider, ses, new Runnable() {
+                        @Override
+                        public void run() {
+                            linkCostsUpdated.set(true);
+                            newInstanceTask.reschedule(1, TimeUnit.MILLISECONDS);
+                        }
+                    }, linkCostPollInterval, linkCapacity,
+                    linkCostAlpha, linkCostHysteresis);
+            linkCostProvider.start();
+        }
         linkDiscovery.addListener(this);
         floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
         floodlightProvider.addHAListener(this);
@@ -861,33 +1197,35 @@ public class TopologyManager implements
      * multiple link removed messages.  However, all the updates from
      * LinkDiscoveryManager would be propagated to the listeners of topology.
      */
-    @LogMessageDoc(level="ERROR",
-            message="Error reading link discovery update.",
-            explanation="Unable to process link discovery update",
-            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     public void applyUpdates() {
         appliedUpdates.clear();
-        LDUpdate update = null;
-        while (ldUpdates.peek() != null) {
-            try {
-                update = ldUpdates.take();
-            } catch (Exception e) {
-                log.error("Error reading link discovery update.", e);
-            }
+        List<LDUpdate> updates = new ArrayList<LDUpdate>(ldUpdates.size());
+        ldUpdates.drainTo(updates);
+        lastBatchSize = updates.size();
+        int absorbed = 0;
+        for (LDUpdate update : updates) {
             if (log.isTraceEnabled()) {
                 log.trace("Applying update: {}", update);
             }
+            boolean changed = true;
             if (update.getOperation() == UpdateOperation.LINK_UPDATED) {
-                addOrUpdateLink(update.getSrc(), update.getSrcPort(),
-                                update.getDst(), update.getDstPort(),
-                                update.getType());
+                changed = addOrUpdateLink(update.getSrc(), update.getSrcPort(),
+                                          update.getDst(), update.getDstPort(),
+                                          update.getType());
             } else if (update.getOperation() == UpdateOperation.LINK_REMOVED){
-                removeLink(update.getSrc(), update.getSrcPort(), 
-                           update.getDst(), update.getDstPort());
+                changed = removeLink(update.getSrc(), update.getSrcPort(), 
+                                     update.getDst(), update.getDstPort());
+            }
+            if (!changed) {
+                // a refresh of a known link or the removal of an unknown
+                // one, which is not news to the listeners either
+                absorbed++;
+                continue;
             }
             // Add to the list of applied updates.
             appliedUpdates.add(update);
         }
+        updateCounters.addAbsorbed(absorbed);
     }
 
     /**
@@ -902,34 +1240,62 @@ public class TopologyManager implements
     protected boolean createNewInstance() {
         Set<NodePortTuple> blockedPorts = new HashSet<NodePortTuple>();
 
-        if (!linksUpdated) return false;
+        boolean costsUpdated = linkCostsUpdated.getAndSet(false);
+        if (!linksUpdated && !costsUpdated) return false;
 
-        Map<NodePortTuple, Set<Link>> openflowLinks;
-        openflowLinks = 
-                new HashMap<NodePortTuple, Set<Link>>(switchPortLinks);
+        // Only the ports that are removed are copied; the rest of the
+        // links is shared with switchPortLinks.
+        PersistentMap<NodePortTuple, Set<Link>> openflowLinks;
+        openflowLinks = switchPortLinks;
 
         // Remove all tunnel links.
         for(NodePortTuple npt: tunnelLinks.keySet()) {
-            if (openflowLinks.get(npt) != null)
-                openflowLinks.remove(npt);
+            openflowLinks = openflowLinks.minus(npt);
         }
 
         // Remove all broadcast domain links.
         for(NodePortTuple npt: portBroadcastDomainLinks.keySet()) {
-            if (openflowLinks.get(npt) != null)
-                openflowLinks.remove(npt);
+            openflowLinks = openflowLinks.minus(npt);
         }
 
-        TopologyInstance nt = new TopologyInstance(switchPorts, 
+        // the trees of the current instance are no longer worth warming
+        if (currentInstance != null) currentInstance.retire();
+
+        final TopologyInstance nt = new TopologyInstance(switchPorts, 
                                                    blockedPorts,
                                                    openflowLinks, 
                                                    portBroadcastDomainLinks.keySet(), 
                                                    tunnelLinks.keySet());
-        nt.compute();
+        if (linkCostProvider != null) {
+            Map<Link, Integer> linkCosts = new HashMap<Link, Integer>();
+            for (Set<Link> links : openflowLinks.values()) {
+                for (Link link : links) {
+                    linkCosts.put(link, linkCostProvider.getLinkCost(link));
+                }
+            }
+            nt.setLinkCosts(linkCosts);
+        }
+        nt.setForkJoinPool(pathPool);
+        nt.setFatTreeLayout(fatTreeLayout);
+        nt.setPathMatrixSize(pathMatrixSize);
+        nt.setLazyPaths(lazyPaths);
+        nt.setRouteCaches(routeCacheSize, routeCacheCounters,
+                          endpointRouteCacheCounters,
+                          equalCostRouteCacheCounters);
+        nt.compute(incrementalPaths ? currentInstance : null);
+        nt.inheritRouteCaches(currentInstance);
         // We set the instances with and without tunnels to be identical.
         // If needed, we may compute them differently.
         currentInstance = nt;
         currentInstanceWithoutTunnels = nt;
+        if (warmExecutor != null) {
+            warmExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    nt.warmShortestPathTrees();
+                }
+            });
+        }
         return true;
     }
 
@@ -943,13 +1309,28 @@ public class TopologyManager implements
 
     public void addSwitch(long sid) {
         if (switchPorts.containsKey(sid) == false) {
-            switchPorts.put(sid, new HashSet<Short>());
+            switchPorts = switchPorts.plus(sid, PersistentSet.<Short>empty());
         }
     }
 
     private void addPortToSwitch(long s, short p) {
         addSwitch(s);
-        switchPorts.get(s).add(p);
+        PersistentSet<Short> ports = (PersistentSet<Short>)switchPorts.get(s);
+        switchPorts = switchPorts.plus(s, ports.plus(p));
+    }
+
+    /**
+     * Removes a port from a switch, and the switch once it has no ports.
+     */
+    private void removePortFromSwitch(long s, short p) {
+        PersistentSet<Short> ports = (PersistentSet<Short>)switchPorts.get(s);
+        if (ports == null) return;
+        ports = ports.minus(p);
+        if (ports.isEmpty()) {
+            switchPorts = switchPorts.minus(s);
+        } else {
+            switchPorts = switchPorts.plus(s, ports);
+        }
     }
 
     public boolean removeSwitchPort(long sw, short port) {
@@ -1010,6 +1391,45 @@ public class TopologyManager implements
         return (result1 || result2);
     }
 
+    /**
+     * Add the given link to the switch port links, sharing the rest of
+     * the structure with the previous version.
+     */
+    private void addSwitchPortLink(Link l) {
+        switchPortLinks = plusLink(switchPortLinks,
+                new NodePortTuple(l.getSrc(), l.getSrcPort()), l);
+        switchPortLinks = plusLink(switchPortLinks,
+                new NodePortTuple(l.getDst(), l.getDstPort()), l);
+    }
+
+    /**
+     * Delete the given link from the switch port links, sharing the rest
+     * of the structure with the previous version.
+     */
+    private void removeSwitchPortLink(Link l) {
+        switchPortLinks = minusLink(switchPortLinks,
+                new NodePortTuple(l.getSrc(), l.getSrcPort()), l);
+        switchPortLinks = minusLink(switchPortLinks,
+                new NodePortTuple(l.getDst(), l.getDstPort()), l);
+    }
+
+    private static PersistentMap<NodePortTuple, Set<Link>>
+    plusLink(PersistentMap<NodePortTuple, Set<Link>> s, NodePortTuple npt,
+             Link l) {
+        PersistentSet<Link> links = (PersistentSet<Link>)s.get(npt);
+        if (links == null) links = PersistentSet.empty();
+        return s.plus(npt, links.plus(l));
+    }
+
+    private static PersistentMap<NodePortTuple, Set<Link>>
+    minusLink(PersistentMap<NodePortTuple, Set<Link>> s, NodePortTuple npt,
+              Link l) {
+        PersistentSet<Link> links = (PersistentSet<Link>)s.get(npt);
+        if (links == null) return s;
+        links = links.minus(l);
+        return links.isEmpty() ? s.minus(npt) : s.plus(npt, links);
+    }
+
     /**
      * Delete the given link from the data strucure.  Returns true if the
      * link was deleted.
@@ -1035,82 +1455,97 @@ public class TopologyManager implements
         return result1 || result2;
     }
 
-    public void addOrUpdateLink(long srcId, short srcPort, long dstId, 
-                                short dstPort, LinkType type) {
-        boolean flag1 = false, flag2 = false;
+    /**
+     * Adds a link, or updates its type.  The topology is only marked as
+     * updated if the link is new or its type changed; the switch port
+     * structures are persistent, so they are unchanged exactly when they
+     * are the same objects as before.
+     * @return true if the link was added or changed type
+     */
+    public boolean addOrUpdateLink(long srcId, short srcPort, long dstId, 
+                                   short dstPort, LinkType type) {
+        boolean flag1 = false, flag2 = false, flag3 = false;
+        PersistentMap<Long, Set<Short>> oldSwitchPorts = switchPorts;
+        PersistentMap<NodePortTuple, Set<Link>> oldSwitchPortLinks =
+                switchPortLinks;
 
         Link link = new Link(srcId, srcPort, dstId, dstPort);
         addPortToSwitch(srcId, srcPort);
         addPortToSwitch(dstId, dstPort);
 
-        addLinkToStructure(switchPortLinks, link);
+        addSwitchPortLink(link);
 
         if (type.equals(LinkType.MULTIHOP_LINK)) {
-            addLinkToStructure(portBroadcastDomainLinks, link);
+            flag3 = addLinkToStructure(portBroadcastDomainLinks, link);
             flag1 = removeLinkFromStructure(tunnelLinks, link);
             flag2 = removeLinkFromStructure(directLinks, link);
-            dtLinksUpdated = flag1 || flag2;
         } else if (type.equals(LinkType.TUNNEL)) {
-            addLinkToStructure(tunnelLinks, link);
-            removeLinkFromStructure(portBroadcastDomainLinks, link);
-            removeLinkFromStructure(directLinks, link);
-            dtLinksUpdated = true;
+            flag1 = addLinkToStructure(tunnelLinks, link);
+            flag3 = removeLinkFromStructure(portBroadcastDomainLinks, link);
+            flag2 = removeLinkFromStructure(directLinks, link);
         } else if (type.equals(LinkType.DIRECT_LINK)) {
-            addLinkToStructure(directLinks, link);
-            removeLinkFromStructure(tunnelLinks, link);
-            removeLinkFromStructure(portBroadcastDomainLinks, link);
-            dtLinksUpdated = true;
+            flag2 = addLinkToStructure(directLinks, link);
+            flag1 = removeLinkFromStructure(tunnelLinks, link);
+            flag3 = removeLinkFromStructure(portBroadcastDomainLinks, link);
         }
-        linksUpdated = true;
+        if (flag1 || flag2) dtLinksUpdated = true;
+
+        boolean changed = flag1 || flag2 || flag3 ||
+                          switchPorts != oldSwitchPorts ||
+                          switchPortLinks != oldSwitchPortLinks;
+        if (changed) linksUpdated = true;
+        return changed;
     }
 
-    public void removeLink(Link link)  {
-        boolean flag1 = false, flag2 = false;
+    /**
+     * Deletes a link.  The topology is only marked as updated if the link
+     * was present.
+     * @return true if the link was deleted
+     */
+    public boolean removeLink(Link link)  {
+        boolean flag1 = false, flag2 = false, flag3 = false;
+        PersistentMap<Long, Set<Short>> oldSwitchPorts = switchPorts;
+        PersistentMap<NodePortTuple, Set<Link>> oldSwitchPortLinks =
+                switchPortLinks;
 
         flag1 = removeLinkFromStructure(directLinks, link);
         flag2 = removeLinkFromStructure(tunnelLinks, link);
 
-        linksUpdated = true;
-        dtLinksUpdated = flag1 || flag2;
+        if (flag1 || flag2) dtLinksUpdated = true;
 
-        removeLinkFromStructure(portBroadcastDomainLinks, link);
-        removeLinkFromStructure(switchPortLinks, link);
+        flag3 = removeLinkFromStructure(portBroadcastDomainLinks, link);
+        removeSwitchPortLink(link);
 
         NodePortTuple srcNpt = 
                 new NodePortTuple(link.getSrc(), link.getSrcPort());
         NodePortTuple dstNpt = 
                 new NodePortTuple(link.getDst(), link.getDstPort());
 
-        // Remove switch ports if there are no links through those switch ports
+        // Remove switch ports if there are no links through those switch
+        // ports, and the node if no ports are present
         if (switchPortLinks.get(srcNpt) == null) {
-            if (switchPorts.get(srcNpt.getNodeId()) != null)
-                switchPorts.get(srcNpt.getNodeId()).remove(srcNpt.getPortId());
+            removePortFromSwitch(srcNpt.getNodeId(), srcNpt.getPortId());
         }
         if (switchPortLinks.get(dstNpt) == null) {
-            if (switchPorts.get(dstNpt.getNodeId()) != null)
-                switchPorts.get(dstNpt.getNodeId()).remove(dstNpt.getPortId());
+            removePortFromSwitch(dstNpt.getNodeId(), dstNpt.getPortId());
         }
 
-        // Remove the node if no ports are present
-        if (switchPorts.get(srcNpt.getNodeId())!=null && 
-                switchPorts.get(srcNpt.getNodeId()).isEmpty()) {
-            switchPorts.remove(srcNpt.getNodeId());
-        }
-        if (switchPorts.get(dstNpt.getNodeId())!=null && 
-                switchPorts.get(dstNpt.getNodeId()).isEmpty()) {
-            switchPorts.remove(dstNpt.getNodeId());
-        }
+        boolean changed = flag1 || flag2 || flag3 ||
+                          switchPorts != oldSwitchPorts ||
+                          switchPortLinks != oldSwitchPortLinks;
+        if (changed) linksUpdated = true;
+        return changed;
     }
 
-    public void removeLink(long srcId, short srcPort,
-                           long dstId, short dstPort) {
+    public boolean removeLink(long srcId, short srcPort,
+                              long dstId, short dstPort) {
         Link link = new Link(srcId, srcPort, dstId, dstPort);
-        removeLink(link);
+        return removeLink(link);
     }
 
     public void clear() {
-        switchPorts.clear();
-        switchPortLinks.clear();
+        switchPorts = PersistentMap.empty();
+        switchPortLinks = PersistentMap.empty();
         portBroadcastDomainLinks.clear();
         tunnelLinks.clear();
         directLinks.clear();
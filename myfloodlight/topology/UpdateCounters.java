@@ -0,0 +1,94 @@
+package net.floodlightcontroller.topology;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the link discovery updates applied by the topology manager:
+ * how many updates each new topology instance coalesced, how long the
+ * updates waited in the queue before being applied, and how many of them
+ * changed nothing.
+ */
+public class UpdateCounters {
+    protected final AtomicLong updates = new AtomicLong();
+    protected final AtomicLong batches = new AtomicLong();
+    protected final AtomicLong recomputes = new AtomicLong();
+    protected final AtomicLong absorbed = new AtomicLong();
+    protected final AtomicLong largestBatch = new AtomicLong();
+    /** Wait of the oldest update of every batch, summed */
+    protected final AtomicLong queueingNanos = new AtomicLong();
+    protected final AtomicLong maxQueueingNanos = new AtomicLong();
+    protected volatile long quietPeriodNanos;
+
+    /**
+     * Records a batch of updates drained from the queue.
+     * @param size The number of updates
+     * @param queueingNanos How long the oldest update waited
+     * @param recomputed Whether a new topology instance was computed
+     */
+    void addBatch(int size, long queueingNanos, boolean recomputed) {
+        updates.addAndGet(size);
+        batches.incrementAndGet();
+        if (recomputed) recomputes.incrementAndGet();
+        this.queueingNanos.addAndGet(queueingNanos);
+        max(largestBatch, size);
+        max(maxQueueingNanos, queueingNanos);
+    }
+
+    /**
+     * Records updates that did not change the topology, such as the
+     * refresh of a known link.
+     */
+    void addAbsorbed(int count) {
+        absorbed.addAndGet(count);
+    }
+
+    private static void max(AtomicLong a, long value) {
+        long current;
+        while ((current = a.get()) < value) {
+            if (a.compareAndSet(current, value)) break;
+        }
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /** Batches that led to a new topology instance */
+    public long getRecomputes() {
+        return recomputes.get();
+    }
+
+    /** Updates that did not change the topology */
+    public long getAbsorbedUpdates() {
+        return absorbed.get();
+    }
+
+    public long getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    public double getUpdatesPerRecompute() {
+        long r = recomputes.get();
+        return (r == 0) ? 0 : (double)updates.get() / r;
+    }
+
+    /** Average wait of the oldest update of a batch, in milliseconds */
+    public double getAverageQueueingDelayMs() {
+        long b = batches.get();
+        return (b == 0) ? 0 : (double)queueingNanos.get() / b / 1000000;
+    }
+
+    public double getMaxQueueingDelayMs() {
+        return (double)maxQueueingNanos.get() / 1000000;
+    }
+
+    /** The quiet period currently awaited before applying a batch */
+    public long getQuietPeriodMs() {
+        return TimeUnit.NANOSECONDS.toMillis(quietPeriodNanos);
+    }
+}
@@ -0,0 +1,41 @@
+package net.floodlightcontroller.topology.web;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.topology.ITopologyService;
+
+import org.openflow.util.HexString;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Lists the cost of every link of the current topology instance, with
+ * the utilization of its source port.
+ */
+public class LinkCostsResource extends ServerResource {
+    @Get("json")
+    public List<Map<String, Object>> retrieve() {
+        ITopologyService topology =
+                (ITopologyService)getContext().getAttributes().
+                    get(ITopologyService.class.getCanonicalName());
+
+        List<Map<String, Object>> costs = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<Link, Integer> e : topology.getLinkCosts().entrySet()) {
+            Link link = e.getKey();
+            Map<String, Object> m = new HashMap<String, Object>();
+            m.put("src-switch", HexString.toHexString(link.getSrc()));
+            m.put("src-port", link.getSrcPort());
+            m.put("dst-switch", HexString.toHexString(link.getDst()));
+            m.put("dst-port", link.getDstPort());
+            m.put("cost", e.getValue());
+            m.put("utilization",
+                  topology.getPortUtilization(link.getSrc(), link.getSrcPort()));
+            costs.add(m);
+        }
+        return costs;
+    }
+}
@@ -0,0 +1,20 @@
+package net.floodlightcontroller.topology.web;
+
+import java.util.Map;
+
+import net.floodlightcontroller.topology.ITopologyService;
+import net.floodlightcontroller.topology.RouteCache;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+public class RouteCacheResource extends ServerResource {
+    @Get("json")
+    public Map<String, RouteCache.Counters> retrieve() {
+        ITopologyService topology = 
+                (ITopologyService)getContext().getAttributes().
+                    get(ITopologyService.class.getCanonicalName());
+
+        return topology.getRouteCacheCounters();
+    }
+}
@@ -19,6 +19,9 @@ public class TopologyWebRoutable implements RestletRoutable {
         router.attach("/broadcastdomainports/json", BroadcastDomainPortsResource.class);
         router.attach("/enabledports/json", EnabledPortsResource.class);
         router.attach("/blockedports/json", BlockedPortsResource.class);
+        router.attach("/linkcosts/json", LinkCostsResource.class);
+        router.attach("/routecache/json", RouteCacheResource.class);
+        router.attach("/updates/json", UpdateCountersResource.class);
         router.attach("/route/{src-dpid}/{src-port}/{dst-dpid}/{dst-port}/json", RouteResource.class);
         return router;
     }
@@ -0,0 +1,18 @@
+package net.floodlightcontroller.topology.web;
+
+import net.floodlightcontroller.topology.ITopologyService;
+import net.floodlightcontroller.topology.UpdateCounters;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+public class UpdateCountersResource extends ServerResource {
+    @Get("json")
+    public UpdateCounters retrieve() {
+        ITopologyService topology = 
+                (ITopologyService)getContext().getAttributes().
+                    get(ITopologyService.class.getCanonicalName());
+
+        return topology.getUpdateCounters();
+    }
+}